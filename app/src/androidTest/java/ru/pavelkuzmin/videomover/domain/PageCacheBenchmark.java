@@ -0,0 +1,113 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Сколько page cache съедает перенос: копируем один и тот же файл обычным PassthroughProcessor
+ * и в режиме «бережно к памяти», до и после смотрим Cached из /proc/meminfo и VmRSS процесса.
+ * Результаты — в logcat с тегом PageCacheBench.
+ *
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=ru.pavelkuzmin.videomover.domain.PageCacheBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageCacheBenchmark {
+
+    private static final String TAG = "PageCacheBench";
+    private static final int CHUNK = 1024 * 1024;
+    private static final long FILE_SIZE = 256L * CHUNK;
+
+    @Test
+    public void copy_cacheGrowthWithAndWithoutLowMemory() throws Exception {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File dir = new File(ctx.getFilesDir(), "pagecache_bench");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        File src = new File(dir, "src.bin");
+        writeSource(src);
+
+        long[] plain = run(ctx, src, new File(dir, "plain.bin"), PassthroughProcessor.INSTANCE);
+        long[] low = run(ctx, src, new File(dir, "low.bin"), PassthroughProcessor.LOW_MEMORY);
+        Log.i(TAG, String.format("обычный режим: +%d МБ кэша, +%d МБ RSS, %d мс; бережный: +%d МБ кэша, +%d МБ RSS, %d мс",
+                plain[0] / CHUNK, plain[1] / CHUNK, plain[2], low[0] / CHUNK, low[1] / CHUNK, low[2]));
+
+        File[] left = dir.listFiles();
+        if (left != null) for (File f : left) //noinspection ResultOfMethodCallIgnored
+            f.delete();
+    }
+
+    /** @return {прирост Cached, прирост VmRSS (байт), время копирования (мс)} */
+    private static long[] run(Context ctx, File src, File dest, MediaProcessor processor) throws Exception {
+        assertTrue(dest.createNewFile());
+        // начинаем с холодного источника, иначе обычный режим «ничего не добавит» к кэшу
+        dropFromCache(ctx, src);
+        long cached = meminfo("Cached:");
+        long rss = selfStatus("VmRSS:");
+        long start = System.nanoTime();
+
+        long written = processor.process(ctx, Uri.fromFile(src), Uri.fromFile(dest), null,
+                MessageDigest.getInstance("SHA-256"));
+        try (FileOutputStream out = new FileOutputStream(dest, true)) {
+            out.getFD().sync(); // как DurableCommit: после fsync у назначения не остаётся грязных страниц
+            if (processor == PassthroughProcessor.LOW_MEMORY) PageCache.drop(out.getFD());
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000L;
+        assertEquals(FILE_SIZE, written);
+        return new long[] { meminfo("Cached:") - cached, selfStatus("VmRSS:") - rss, ms };
+    }
+
+    private static void writeSource(File f) throws IOException {
+        byte[] buf = new byte[CHUNK];
+        for (int i = 0; i < buf.length; i++) buf[i] = (byte) (i * 31);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            for (long done = 0; done < FILE_SIZE; done += CHUNK) out.write(buf);
+            out.getFD().sync();
+        }
+    }
+
+    private static void dropFromCache(Context ctx, File f) throws IOException {
+        try (ParcelFileDescriptor pfd = ctx.getContentResolver().openFileDescriptor(Uri.fromFile(f), "r")) {
+            assertNotNull(pfd);
+            PageCache.drop(pfd.getFileDescriptor());
+        }
+    }
+
+    private static long meminfo(String key) throws IOException {
+        return kbField("/proc/meminfo", key);
+    }
+
+    private static long selfStatus(String key) throws IOException {
+        return kbField("/proc/self/status", key);
+    }
+
+    /** Строка вида "Cached:   123456 kB" → байты. */
+    private static long kbField(String path, String key) throws IOException {
+        try (BufferedReader r = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith(key)) {
+                    String[] parts = line.substring(key.length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024L;
+                }
+            }
+        }
+        fail(key + " нет в " + path);
+        return 0;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.Context;
+import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Замер устойчивой скорости записи (и последующего чтения) с предвыделением и без.
+ * Пишет на съёмный носитель, если он есть (SD/USB на exFAT/FAT32 — там разница и видна),
+ * иначе во внутреннюю память. Результаты — в logcat с тегом PreallocBench.
+ *
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=ru.pavelkuzmin.videomover.domain.PreallocationBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreallocationBenchmark {
+
+    private static final String TAG = "PreallocBench";
+    private static final int CHUNK = 1024 * 1024;
+    private static final int FILES = 4;
+    private static final long FILE_SIZE = 128L * CHUNK;
+
+    @Test
+    public void sustainedWrite_withAndWithoutPreallocation() throws Exception {
+        File dir = benchDir();
+        // чередуем, чтобы оба варианта писали в одинаково «заполненную» ФС
+        double[] plain = new double[2];
+        double[] prealloc = new double[2];
+        for (int i = 0; i < FILES; i++) {
+            add(plain, run(new File(dir, "plain_" + i + ".bin"), false));
+            add(prealloc, run(new File(dir, "prealloc_" + i + ".bin"), true));
+        }
+        Log.i(TAG, String.format("%s: без предвыделения %.1f МБ/с записи, %.1f МБ/с чтения; с предвыделением %.1f / %.1f",
+                dir, plain[0] / FILES, plain[1] / FILES, prealloc[0] / FILES, prealloc[1] / FILES));
+        File[] left = dir.listFiles();
+        if (left != null) for (File f : left) //noinspection ResultOfMethodCallIgnored
+            f.delete();
+    }
+
+    /** @return {МБ/с записи, МБ/с чтения} */
+    private static double[] run(File f, boolean preallocate) throws IOException, ErrnoException {
+        byte[] buf = new byte[CHUNK];
+        for (int i = 0; i < buf.length; i++) buf[i] = (byte) (i * 31);
+
+        long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            if (preallocate) assertTrue(Preallocation.reserve(raf.getFD(), FILE_SIZE));
+            FileOutputStream out = new FileOutputStream(raf.getFD());
+            for (long done = 0; done < FILE_SIZE; done += CHUNK) out.write(buf);
+            raf.getFD().sync();
+            // выкидываем файл из page cache, иначе чтение ниже мерит память, а не носитель
+            Os.posix_fadvise(raf.getFD(), 0, 0, OsConstants.POSIX_FADV_DONTNEED);
+        }
+        double write = mbps(FILE_SIZE, System.nanoTime() - start);
+        assertEquals(FILE_SIZE, f.length());
+
+        start = System.nanoTime();
+        try (FileInputStream in = new FileInputStream(f)) {
+            while (in.read(buf) != -1) { /* читаем до конца */ }
+        }
+        double read = mbps(FILE_SIZE, System.nanoTime() - start);
+        return new double[] { write, read };
+    }
+
+    private static File benchDir() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File chosen = ctx.getFilesDir();
+        for (File d : ctx.getExternalFilesDirs(null)) {
+            if (d != null && Environment.isExternalStorageRemovable(d)) chosen = d;
+        }
+        File dir = new File(chosen, "prealloc_bench");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        return dir;
+    }
+
+    private static void add(double[] acc, double[] v) {
+        acc[0] += v[0];
+        acc[1] += v[1];
+    }
+
+    private static double mbps(long bytes, long nanos) {
+        return bytes / (double) CHUNK / (nanos / 1e9);
+    }
+}
@@ -19,10 +19,13 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
-import androidx.documentfile.provider.DocumentFile;
 
 import java.util.ArrayList;
 
+import ru.pavelkuzmin.videomover.data.CopyQueue;
+import ru.pavelkuzmin.videomover.data.InstantMover;
+import ru.pavelkuzmin.videomover.data.MediaQuery;
+import ru.pavelkuzmin.videomover.data.SafTree;
 import ru.pavelkuzmin.videomover.data.SettingsStore;
 import ru.pavelkuzmin.videomover.databinding.ActivityMainBinding;
 import ru.pavelkuzmin.videomover.service.CopyService;
@@ -73,12 +76,27 @@ public class MainActivity extends AppCompatActivity {
     // === Диалог системного удаления исходников ===
     private final ActivityResultLauncher<IntentSenderRequest> deleteLauncher =
             registerForActivityResult(new ActivityResultContracts.StartIntentSenderForResult(), result -> {
+                deletionInFlight = false;
                 if (result.getResultCode() == RESULT_OK) {
+                    closeQueueSession(true);
                     Toast.makeText(this, getString(R.string.deleting_done), Toast.LENGTH_LONG).show();
                 } else {
+                    closeQueueSession(false);
                     Toast.makeText(this, getString(R.string.deleting_canceled), Toast.LENGTH_LONG).show();
                 }
             });
+    private boolean deletionInFlight;
+
+    // === Согласие на перенос через MediaStore (тот же том) ===
+    private Uri pendingDestTree;
+    private final ActivityResultLauncher<IntentSenderRequest> writeLauncher =
+            registerForActivityResult(new ActivityResultContracts.StartIntentSenderForResult(), result -> {
+                Uri dest = pendingDestTree;
+                pendingDestTree = null;
+                if (dest == null) { unlockUi(); return; }
+                // отказ — не беда: просто скопируем с удалением, как раньше
+                startCopyService(dest, result.getResultCode() == RESULT_OK);
+            });
 
     // === Broadcasts from CopyService ===
     private final BroadcastReceiver progressReceiver = new BroadcastReceiver() {
@@ -99,6 +117,17 @@ public class MainActivity extends AppCompatActivity {
             int ok = intent.getIntExtra(CopyService.EXTRA_OK, 0);
             int total = intent.getIntExtra(CopyService.EXTRA_TOTAL, 0);
             int fail = intent.getIntExtra(CopyService.EXTRA_FAIL, 0);
+            int skipped = intent.getIntExtra(CopyService.EXTRA_SKIPPED, 0);
+            int moved = intent.getIntExtra(CopyService.EXTRA_MOVED, 0);
+            int synced = intent.getIntExtra(CopyService.EXTRA_SYNC_COUNT, 0);
+            long syncMs = intent.getLongExtra(CopyService.EXTRA_SYNC_MS, 0);
+            boolean noSpace = intent.getBooleanExtra(CopyService.EXTRA_NO_SPACE, false);
+            String destError = intent.getStringExtra(CopyService.EXTRA_DEST_ERROR);
+            if (destError != null) {
+                Toast.makeText(MainActivity.this, getString(R.string.done_dest_error, destError), Toast.LENGTH_LONG).show();
+                unlockUi();
+                return;
+            }
             ArrayList<String> toDeleteStr = intent.getStringArrayListExtra(CopyService.EXTRA_TO_DELETE);
             ArrayList<Uri> toDelete = new ArrayList<>();
             if (toDeleteStr != null) {
@@ -106,32 +135,67 @@ public class MainActivity extends AppCompatActivity {
             }
 
             Toast.makeText(MainActivity.this,
-                    "Готово: " + ok + " из " + total + (fail > 0 ? (" с ошибками: " + fail) : ""),
+                    "Готово: " + ok + " из " + total + (fail > 0 ? (" с ошибками: " + fail) : "")
+                            + (skipped > 0 ? getString(R.string.done_skipped, skipped) : "")
+                            + (moved > 0 ? getString(R.string.done_moved, moved) : "")
+                            + (synced > 0 ? getString(R.string.done_synced, synced, syncMs) : "")
+                            + (noSpace ? getString(R.string.done_no_space) : ""),
                     Toast.LENGTH_LONG).show();
 
-            // Если включено — запросим удаление
-            if (SettingsStore.isDeleteAfter(MainActivity.this) && !toDelete.isEmpty()) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                    try {
-                        IntentSender sender = MediaStore
-                                .createDeleteRequest(getContentResolver(), toDelete)
-                                .getIntentSender();
-                        deleteLauncher.launch(new IntentSenderRequest.Builder(sender).build());
-                    } catch (Exception e) {
-                        Toast.makeText(MainActivity.this, "Не удалось запросить удаление: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                    }
-                } else {
-                    for (Uri u : toDelete) {
-                        try { getContentResolver().delete(u, null, null); } catch (Exception ignore) {}
-                    }
-                    Toast.makeText(MainActivity.this, getString(R.string.deleting_done), Toast.LENGTH_SHORT).show();
-                }
-            }
-
+            requestSourceDeletion(toDelete);
             unlockUi();
         }
     };
 
+    /** Если включено — запросим удаление перенесённых исходников; иначе просто закрываем сессию очереди. */
+    private void requestSourceDeletion(ArrayList<Uri> toDelete) {
+        if (!SettingsStore.isDeleteAfter(this) || toDelete.isEmpty()) {
+            closeQueueSession(false);
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try {
+                IntentSender sender = MediaStore
+                        .createDeleteRequest(getContentResolver(), toDelete)
+                        .getIntentSender();
+                deletionInFlight = true;
+                deleteLauncher.launch(new IntentSenderRequest.Builder(sender).build());
+            } catch (Exception e) {
+                deletionInFlight = false;
+                Toast.makeText(this, "Не удалось запросить удаление: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        } else {
+            for (Uri u : toDelete) {
+                try { getContentResolver().delete(u, null, null); } catch (Exception ignore) {}
+            }
+            closeQueueSession(true);
+            Toast.makeText(this, getString(R.string.deleting_done), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void closeQueueSession(boolean sourcesDeleted) {
+        new Thread(() -> {
+            CopyQueue queue = CopyQueue.get(this);
+            if (sourcesDeleted) queue.markAllDeleted(CopyQueue.VERIFIED);
+            queue.clear();
+        }).start();
+    }
+
+    /** Сессия закончилась, пока Activity была не видна (или процесс перезапускался) — предложим удаление сейчас. */
+    private void offerDeletionForFinishedSession() {
+        if (deletionInFlight) return;
+        new Thread(() -> {
+            CopyQueue queue = CopyQueue.get(this);
+            CopyQueue.Session session = queue.session();
+            if (session == null || session.state != CopyQueue.SESSION_FINISHED) return;
+            ArrayList<Uri> toDelete = new ArrayList<>();
+            for (MediaQuery.VideoItem it : queue.itemsInState(CopyQueue.VERIFIED)) toDelete.add(it.uri());
+            runOnUiThread(() -> {
+                if (!deletionInFlight) requestSourceDeletion(toDelete);
+            });
+        }).start();
+    }
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -162,6 +226,7 @@ public class MainActivity extends AppCompatActivity {
                 new IntentFilter(CopyService.ACTION_DONE),
                 Context.RECEIVER_NOT_EXPORTED
         );
+        offerDeletionForFinishedSession();
     }
 
     @Override
@@ -205,8 +270,12 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void updateDestUi() {
+        String webDav = SettingsStore.getWebDavUrl(this);
         Uri uri = SettingsStore.getDestTreeUri(this);
-        if (uri == null) {
+        if (webDav != null) {
+            binding.tvDest.setText(getString(R.string.dest_webdav, webDav));
+            binding.btnTransfer.setEnabled(true);
+        } else if (uri == null) {
             binding.tvDest.setText(getString(R.string.dest_not_selected));
             binding.btnTransfer.setEnabled(false);
         } else {
@@ -230,12 +299,21 @@ public class MainActivity extends AppCompatActivity {
     private void onTransferAll() {
         if (!ensureVideoPermission()) return;
 
+        // Задан WebDAV — копируем на сервер; доступность проверит сам сервис, не на UI-потоке
+        String webDav = SettingsStore.getWebDavUrl(this);
+        if (webDav != null) {
+            if (!ensureNotificationPermission()) return;
+            lockUiForCopy();
+            startCopyService(Uri.parse(webDav), false);
+            return;
+        }
+
         Uri destTree = SettingsStore.getDestTreeUri(this);
         if (destTree == null) {
             Toast.makeText(this, "Сначала выберите папку назначения (кнопка ниже или в Настройках)", Toast.LENGTH_LONG).show();
             return;
         }
-        DocumentFile destDir = DocumentFile.fromTreeUri(this, destTree);
+        SafTree destDir = SafTree.open(this, destTree);
         if (destDir == null || !destDir.canWrite()) {
             Toast.makeText(this, "Нет доступа на запись к выбранной папке", Toast.LENGTH_LONG).show();
             return;
@@ -249,10 +327,42 @@ public class MainActivity extends AppCompatActivity {
 
         lockUiForCopy();
 
+        // Назначение на том же томе (API 30+) — попросим право перенести ролики через MediaStore без копирования
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && InstantMover.canMoveViaMediaStore(destTree)) {
+            String rel = SettingsStore.getSourceRelPath(this);
+            new Thread(() -> {
+                ArrayList<Uri> uris = new ArrayList<>();
+                for (MediaQuery.VideoItem it : MediaQuery.findCameraVideosList(this, rel)) {
+                    if (InstantMover.isSameVolume(destTree, it)) uris.add(it.uri());
+                }
+                runOnUiThread(() -> {
+                    if (uris.isEmpty()) {
+                        startCopyService(destTree, false);
+                        return;
+                    }
+                    try {
+                        IntentSender sender = MediaStore
+                                .createWriteRequest(getContentResolver(), uris)
+                                .getIntentSender();
+                        pendingDestTree = destTree;
+                        writeLauncher.launch(new IntentSenderRequest.Builder(sender).build());
+                    } catch (Exception e) {
+                        startCopyService(destTree, false);
+                    }
+                });
+            }).start();
+            return;
+        }
+
+        startCopyService(destTree, false);
+    }
+
+    private void startCopyService(Uri destTree, boolean mediaWriteGranted) {
         // Стартуем Foreground Service
         Intent svc = new Intent(this, CopyService.class);
         svc.setAction(CopyService.ACTION_START);
         svc.putExtra(CopyService.EXTRA_DEST_URI, destTree.toString());
+        svc.putExtra(CopyService.EXTRA_MEDIA_WRITE_GRANTED, mediaWriteGranted);
         String rel = SettingsStore.getSourceRelPath(this);
         if (rel != null) svc.putExtra(CopyService.EXTRA_REL_PREFIX, rel);
 
@@ -1,8 +1,14 @@
 package ru.pavelkuzmin.videomover;
 
+import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.provider.MediaStore;
+import android.text.InputType;
+import android.text.format.DateFormat;
+import android.text.format.Formatter;
 import android.util.TypedValue;
 import android.view.MenuItem;
 import android.widget.Toast;
@@ -13,14 +19,20 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.EditTextPreference;
+import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SwitchPreferenceCompat;
 
+import java.util.Date;
 import java.util.List;
 
 import ru.pavelkuzmin.videomover.data.MediaQuery;
+import ru.pavelkuzmin.videomover.data.PathStatsIndex;
 import ru.pavelkuzmin.videomover.data.SettingsStore;
+import ru.pavelkuzmin.videomover.data.WebDavStorage;
+import ru.pavelkuzmin.videomover.domain.MediaProcessor;
+import ru.pavelkuzmin.videomover.service.ScrubJobService;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -49,6 +61,17 @@ public class SettingsActivity extends AppCompatActivity {
         private Preference sourcePickByVideoPref;
         private EditTextPreference sourceRelPathPref;
         private SwitchPreferenceCompat deleteAfterPref;
+        private SwitchPreferenceCompat strongVerifyPref;
+        private SwitchPreferenceCompat archiveRemuxPref;
+        private SwitchPreferenceCompat lowMemoryPref;
+        private ListPreference durabilityPref;
+        private SwitchPreferenceCompat scrubPref;
+        private EditTextPreference rateLimitPref;
+        private EditTextPreference packThresholdPref;
+        private EditTextPreference parallelismPref;
+        private EditTextPreference webDavUrlPref;
+        private EditTextPreference webDavUserPref;
+        private EditTextPreference webDavPasswordPref;
 
         // Папка назначения (SAF)
         private final ActivityResultLauncher<Intent> openTreeLauncher =
@@ -76,7 +99,12 @@ public class SettingsActivity extends AppCompatActivity {
                 registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
                     if (uri == null) return;
                     String rel = MediaQuery.getRelativePathForVideoUri(requireContext(), uri);
-                    if (rel != null && !rel.isEmpty()) {
+                    String volume = MediaQuery.getVolumeNameForVideoUri(requireContext(), uri);
+                    if (rel != null && !rel.isEmpty() && isSecondaryVolume(volume)) {
+                        // ролик с SD-карты — префикс только для неё, внутренняя память остаётся как была
+                        SettingsStore.setVolumeSourceRelPath(requireContext(), volume, rel);
+                        Toast.makeText(requireContext(), getString(R.string.toast_source_set_volume, rel, volume), Toast.LENGTH_LONG).show();
+                    } else if (rel != null && !rel.isEmpty()) {
                         SettingsStore.setSourceRelPath(requireContext(), rel);
                         if (sourceRelPathPref != null) sourceRelPathPref.setText(rel);
                         Toast.makeText(requireContext(), getString(R.string.toast_source_set, rel), Toast.LENGTH_LONG).show();
@@ -88,6 +116,7 @@ public class SettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.prefs, rootKey);
+            PathStatsIndex.warmUpAsync(requireContext());
 
             destPref = findPreference("pref_dest");
             detectSourcePref = findPreference("pref_source_detect");
@@ -95,6 +124,17 @@ public class SettingsActivity extends AppCompatActivity {
             sourcePickByVideoPref = findPreference("pref_source_pick_video");
             sourceRelPathPref = findPreference("pref_source_relpath");
             deleteAfterPref = findPreference("pref_delete_after");
+            strongVerifyPref = findPreference("pref_strong_verify");
+            archiveRemuxPref = findPreference("pref_archive_remux");
+            lowMemoryPref = findPreference("pref_low_memory");
+            durabilityPref = findPreference("pref_durability");
+            scrubPref = findPreference("pref_scrub");
+            rateLimitPref = findPreference("pref_rate_limit");
+            packThresholdPref = findPreference("pref_pack_threshold");
+            parallelismPref = findPreference("pref_parallelism");
+            webDavUrlPref = findPreference("pref_webdav_url");
+            webDavUserPref = findPreference("pref_webdav_user");
+            webDavPasswordPref = findPreference("pref_webdav_password");
 
             if (destPref != null) {
                 destPref.setOnPreferenceClickListener(p -> {
@@ -111,14 +151,20 @@ public class SettingsActivity extends AppCompatActivity {
 
             if (detectSourcePref != null) {
                 detectSourcePref.setOnPreferenceClickListener(p -> {
-                    String detected = MediaQuery.detectLikelyCameraRelPath(requireContext());
-                    if (detected != null) {
-                        SettingsStore.setSourceRelPath(requireContext(), detected);
-                        if (sourceRelPathPref != null) sourceRelPathPref.setText(detected);
-                        Toast.makeText(requireContext(), getString(R.string.toast_source_set, detected), Toast.LENGTH_LONG).show();
-                    } else {
-                        Toast.makeText(requireContext(), "Не удалось найти камерную папку. Укажите вручную или выберите по видео.", Toast.LENGTH_LONG).show();
-                    }
+                    // статистика читается из кэша, но при первом запуске может пересчитываться — не на UI-потоке
+                    Context app = requireContext().getApplicationContext();
+                    new Thread(() -> {
+                        String detected = MediaQuery.detectLikelyCameraRelPath(app);
+                        onUi(() -> {
+                            if (detected != null) {
+                                SettingsStore.setSourceRelPath(requireContext(), detected);
+                                if (sourceRelPathPref != null) sourceRelPathPref.setText(detected);
+                                Toast.makeText(requireContext(), getString(R.string.toast_source_set, detected), Toast.LENGTH_LONG).show();
+                            } else {
+                                Toast.makeText(requireContext(), "Не удалось найти камерную папку. Укажите вручную или выберите по видео.", Toast.LENGTH_LONG).show();
+                            }
+                        });
+                    }).start();
                     return true;
                 });
             }
@@ -126,10 +172,11 @@ public class SettingsActivity extends AppCompatActivity {
             if (sourcePickListPref != null) {
                 sourcePickListPref.setOnPreferenceClickListener(p -> {
                     // фоново соберём список и покажем диалог
+                    Context app = requireContext().getApplicationContext();
                     new Thread(() -> {
-                        List<MediaQuery.PathStat> list = MediaQuery.listLikelyCameraRelPaths(requireContext(), 12);
+                        List<MediaQuery.PathStat> list = MediaQuery.listLikelyCameraRelPaths(app, 12);
                         if (list.isEmpty()) {
-                            requireActivity().runOnUiThread(() ->
+                            onUi(() ->
                                     new AlertDialog.Builder(requireContext())
                                             .setTitle(R.string.dialog_source_title)
                                             .setMessage(R.string.dialog_source_empty)
@@ -139,9 +186,11 @@ public class SettingsActivity extends AppCompatActivity {
                         }
                         CharSequence[] items = new CharSequence[list.size()];
                         for (int i = 0; i < list.size(); i++) {
-                            items[i] = list.get(i).relPath + "  (" + list.get(i).count + ")";
+                            MediaQuery.PathStat s = list.get(i);
+                            items[i] = s.relPath + "  (" + s.count + ", "
+                                    + Formatter.formatShortFileSize(app, s.bytes) + ")";
                         }
-                        requireActivity().runOnUiThread(() ->
+                        onUi(() ->
                                 new AlertDialog.Builder(requireContext())
                                         .setTitle(R.string.dialog_source_title)
                                         .setItems(items, (d, which) -> {
@@ -180,6 +229,161 @@ public class SettingsActivity extends AppCompatActivity {
                     return true;
                 });
             }
+
+            if (strongVerifyPref != null) {
+                strongVerifyPref.setChecked(SettingsStore.isStrongVerify(requireContext()));
+                strongVerifyPref.setOnPreferenceChangeListener((pref, newVal) -> {
+                    SettingsStore.setStrongVerify(requireContext(), (Boolean) newVal);
+                    return true;
+                });
+            }
+
+            if (lowMemoryPref != null) {
+                lowMemoryPref.setChecked(SettingsStore.isLowMemory(requireContext()));
+                lowMemoryPref.setOnPreferenceChangeListener((pref, newVal) -> {
+                    SettingsStore.setLowMemory(requireContext(), (Boolean) newVal);
+                    return true;
+                });
+            }
+
+            if (archiveRemuxPref != null) {
+                archiveRemuxPref.setChecked(MediaProcessor.MODE_REMUX.equals(
+                        SettingsStore.getArchiveMode(requireContext())));
+                archiveRemuxPref.setOnPreferenceChangeListener((pref, newVal) -> {
+                    SettingsStore.setArchiveMode(requireContext(), (Boolean) newVal
+                            ? MediaProcessor.MODE_REMUX : MediaProcessor.MODE_PASSTHROUGH);
+                    return true;
+                });
+            }
+
+            if (durabilityPref != null) {
+                durabilityPref.setValue(SettingsStore.getDurability(requireContext()));
+                durabilityPref.setOnPreferenceChangeListener((pref, newVal) -> {
+                    SettingsStore.setDurability(requireContext(), (String) newVal);
+                    return true;
+                });
+            }
+
+            if (scrubPref != null) {
+                scrubPref.setChecked(SettingsStore.isScrubEnabled(requireContext()));
+                scrubPref.setSummaryProvider(p -> {
+                    long full = SettingsStore.getScrubLastFull(requireContext());
+                    return getString(R.string.pref_scrub_summary,
+                            SettingsStore.getScrubChecked(requireContext()),
+                            SettingsStore.getScrubCorrupt(requireContext()),
+                            full == 0 ? getString(R.string.pref_scrub_never)
+                                    : DateFormat.getDateFormat(requireContext()).format(new Date(full)));
+                });
+                scrubPref.setOnPreferenceChangeListener((pref, newVal) -> {
+                    SettingsStore.setScrubEnabled(requireContext(), (Boolean) newVal);
+                    ScrubJobService.schedule(requireContext());
+                    return true;
+                });
+            }
+
+            bindNumberPrefs();
+            bindWebDavPrefs();
+        }
+
+        private void bindWebDavPrefs() {
+            if (webDavUrlPref != null) {
+                webDavUrlPref.setText(SettingsStore.getWebDavUrl(requireContext()));
+                webDavUrlPref.setOnBindEditTextListener(et -> et.setInputType(
+                        InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI));
+                webDavUrlPref.setSummaryProvider(p -> {
+                    String url = SettingsStore.getWebDavUrl(requireContext());
+                    return url != null ? url : getString(R.string.pref_webdav_url_off);
+                });
+                webDavUrlPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    String url = String.valueOf(newValue).trim();
+                    if (!url.isEmpty() && !WebDavStorage.isWebDavUrl(url)) {
+                        Toast.makeText(requireContext(), "Нужен адрес https://. Открытый http:// — только для сервера в локальной сети (192.168.x.x, 10.x.x.x, имя .local)", Toast.LENGTH_LONG).show();
+                        return false;
+                    }
+                    SettingsStore.setWebDavUrl(requireContext(), url);
+                    return true;
+                });
+            }
+            if (webDavUserPref != null) {
+                webDavUserPref.setText(SettingsStore.getWebDavUser(requireContext()));
+                webDavUserPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    SettingsStore.setWebDavUser(requireContext(), String.valueOf(newValue));
+                    return true;
+                });
+            }
+            if (webDavPasswordPref != null) {
+                // пароль в summary не показываем
+                webDavPasswordPref.setOnBindEditTextListener(et -> et.setInputType(
+                        InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD));
+                webDavPasswordPref.setSummaryProvider(p -> {
+                    String pass = SettingsStore.getWebDavPassword(requireContext());
+                    return getString(pass == null || pass.isEmpty()
+                            ? R.string.pref_webdav_password_empty : R.string.pref_webdav_password_set);
+                });
+                webDavPasswordPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    SettingsStore.setWebDavPassword(requireContext(), String.valueOf(newValue));
+                    return true;
+                });
+            }
+        }
+
+        private void bindNumberPrefs() {
+            if (rateLimitPref != null) {
+                int cur = SettingsStore.getRateLimitMbps(requireContext());
+                rateLimitPref.setText(String.valueOf(cur));
+                rateLimitPref.setOnBindEditTextListener(et -> et.setInputType(InputType.TYPE_CLASS_NUMBER));
+                rateLimitPref.setSummaryProvider(p -> {
+                    int v = SettingsStore.getRateLimitMbps(requireContext());
+                    return v > 0 ? getString(R.string.pref_rate_limit_value, v) : getString(R.string.pref_rate_limit_off);
+                });
+                rateLimitPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    SettingsStore.setRateLimitMbps(requireContext(), parseIntOr(newValue, 0));
+                    return true;
+                });
+            }
+            if (packThresholdPref != null) {
+                packThresholdPref.setText(String.valueOf(SettingsStore.getPackThresholdMb(requireContext())));
+                packThresholdPref.setOnBindEditTextListener(et -> et.setInputType(InputType.TYPE_CLASS_NUMBER));
+                packThresholdPref.setSummaryProvider(p -> {
+                    int v = SettingsStore.getPackThresholdMb(requireContext());
+                    return v > 0 ? getString(R.string.pref_pack_threshold_value, v) : getString(R.string.pref_pack_threshold_off);
+                });
+                packThresholdPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    SettingsStore.setPackThresholdMb(requireContext(), parseIntOr(newValue, 0));
+                    return true;
+                });
+            }
+            if (parallelismPref != null) {
+                parallelismPref.setText(String.valueOf(SettingsStore.getParallelism(requireContext())));
+                parallelismPref.setOnBindEditTextListener(et -> et.setInputType(InputType.TYPE_CLASS_NUMBER));
+                parallelismPref.setSummaryProvider(p -> String.valueOf(SettingsStore.getParallelism(requireContext())));
+                parallelismPref.setOnPreferenceChangeListener((pref, newValue) -> {
+                    SettingsStore.setParallelism(requireContext(), parseIntOr(newValue, 1));
+                    return true;
+                });
+            }
+        }
+
+        private static boolean isSecondaryVolume(@Nullable String volume) {
+            return volume != null && !volume.isEmpty()
+                    && !MediaStore.VOLUME_EXTERNAL_PRIMARY.equals(volume)
+                    && !MediaQuery.VOLUME_EXTERNAL.equals(volume);
+        }
+
+        private static int parseIntOr(Object v, int def) {
+            try { return Integer.parseInt(String.valueOf(v).trim()); } catch (NumberFormatException e) { return def; }
+        }
+
+        /**
+         * Результат фоновой работы — на UI-поток, и только если фрагмент ещё на экране:
+         * пока поток считал, пользователь мог закрыть настройки.
+         */
+        private void onUi(Runnable r) {
+            Activity a = getActivity();
+            if (a == null) return;
+            a.runOnUiThread(() -> {
+                if (isAdded()) r.run();
+            });
         }
 
         private void updateDestSummary() {
@@ -0,0 +1,85 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import ru.pavelkuzmin.videomover.domain.Sha256Sums;
+
+/**
+ * Манифест SHA256SUMS в корне папки назначения: хэши, посчитанные FileCopier при копировании.
+ * Строки копятся в памяти и дописываются пачками по BATCH, а не по одной записи на файл.
+ * Проверяется снаружи обычным `sha256sum -c SHA256SUMS`.
+ */
+public class ChecksumManifest {
+    static final int BATCH = 64;
+
+    private final ContentResolver cr;
+    private final SafTree tree;
+    private final Sha256Sums.Index index;
+    private final List<String> pending = new ArrayList<>();
+    @Nullable private Uri manifestUri;
+
+    private ChecksumManifest(ContentResolver cr, SafTree tree, Sha256Sums.Index index, @Nullable Uri manifestUri) {
+        this.cr = cr;
+        this.tree = tree;
+        this.index = index;
+        this.manifestUri = manifestUri;
+    }
+
+    /** Читает манифест одним потоковым проходом. Ошибки чтения — пустой индекс. */
+    public static ChecksumManifest load(Context ctx, SafTree tree) {
+        ContentResolver cr = ctx.getContentResolver();
+        SafTree.Child f = tree.find(Sha256Sums.FILE_NAME);
+        Sha256Sums.Index idx = null;
+        if (f != null) {
+            try (InputStream in = cr.openInputStream(f.uri)) {
+                if (in != null) idx = Sha256Sums.load(in);
+            } catch (Exception ignore) {}
+        }
+        return new ChecksumManifest(cr, tree, idx == null ? new Sha256Sums.Index() : idx, f == null ? null : f.uri);
+    }
+
+    public Sha256Sums.Index index() {
+        return index;
+    }
+
+    /** Записывает хэш файла; накопилась пачка — дописывает её в манифест. */
+    public void add(String name, String sha256) {
+        boolean full;
+        synchronized (this) {
+            index.put(name, sha256);
+            pending.add(Sha256Sums.formatLine(sha256, name));
+            full = pending.size() >= BATCH;
+        }
+        if (full) flush();
+    }
+
+    /** Дописывает накопленные строки одной записью. */
+    public synchronized void flush() {
+        if (pending.isEmpty()) return;
+        try {
+            if (manifestUri == null) {
+                manifestUri = tree.createFile("application/octet-stream", Sha256Sums.FILE_NAME);
+                if (manifestUri == null) return;
+            }
+            boolean written = LineFile.append(cr, manifestUri, pending, () -> {
+                List<String> all = new ArrayList<>(index.size());
+                for (Map.Entry<String, String> e : index.entries().entrySet()) {
+                    all.add(Sha256Sums.formatLine(e.getValue(), e.getKey()));
+                }
+                return all;
+            });
+            if (written) pending.clear();
+        } catch (Exception ignore) {
+            // строки остаются в pending — попробуем со следующей пачкой
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Персистентная очередь переноса (SQLite): сессия + ролики с состояниями.
+ * Переживает убийство процесса — CopyService поднимает её при повторной доставке интента
+ * и продолжает с того места, где остановился, без пересканирования и повторного копирования.
+ */
+public class CopyQueue extends SQLiteOpenHelper {
+
+    public static final int PENDING = 0;
+    public static final int COPYING = 1;
+    public static final int COPIED = 2;   // записан и переименован в назначении
+    public static final int VERIFIED = 3; // надёжно лежит в назначении (см. DurableCommit) — исходник можно удалять
+    public static final int DELETED = 4;  // исходника больше нет (удалён или перенесён метаданными)
+    public static final int FAILED = 5;
+
+    public static final int SESSION_RUNNING = 0;
+    public static final int SESSION_FINISHED = 1;
+
+    private static final String DB_NAME = "copy_queue.db";
+    private static final int DB_VERSION = 3;
+
+    private static CopyQueue instance;
+
+    public static synchronized CopyQueue get(Context ctx) {
+        if (instance == null) instance = new CopyQueue(ctx.getApplicationContext());
+        return instance;
+    }
+
+    public static class Session {
+        public final String destUri;
+        @Nullable public final String relPrefix;
+        public final boolean mediaWriteGranted;
+        public final int state;
+        Session(String destUri, @Nullable String relPrefix, boolean mediaWriteGranted, int state) {
+            this.destUri = destUri; this.relPrefix = relPrefix;
+            this.mediaWriteGranted = mediaWriteGranted; this.state = state;
+        }
+    }
+
+    private CopyQueue(Context ctx) {
+        super(ctx, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE session (" +
+                "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+                "dest_uri TEXT NOT NULL, rel_prefix TEXT, media_write INTEGER NOT NULL, state INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE items (" +
+                "media_id INTEGER PRIMARY KEY, name TEXT NOT NULL, size INTEGER NOT NULL, " +
+                "rel_path TEXT NOT NULL, volume TEXT NOT NULL, state INTEGER NOT NULL, " +
+                "dest_name TEXT, sha256 TEXT, error TEXT, date_taken INTEGER NOT NULL DEFAULT 0, temp_name TEXT)");
+        db.execSQL("CREATE INDEX items_state ON items(state)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion <= 2) {
+            // незаконченная сессия переживает обновление; дата съёмки у её роликов неизвестна,
+            // а .partial прошлой версии никому не принадлежат — их удалит перезапуск
+            if (oldVersion == 1) db.execSQL("ALTER TABLE items ADD COLUMN date_taken INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE items ADD COLUMN temp_name TEXT");
+            return;
+        }
+        db.execSQL("DROP TABLE IF EXISTS items");
+        db.execSQL("DROP TABLE IF EXISTS session");
+        onCreate(db);
+    }
+
+    // === Сессия ===
+
+    public synchronized @Nullable Session session() {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT dest_uri, rel_prefix, media_write, state FROM session WHERE id = 1", null)) {
+            if (!c.moveToFirst()) return null;
+            return new Session(c.getString(0), c.isNull(1) ? null : c.getString(1), c.getInt(2) != 0, c.getInt(3));
+        }
+    }
+
+    /** Новая сессия: старые данные стираются, все ролики — PENDING. Одна транзакция. */
+    public synchronized void startSession(String destUri, @Nullable String relPrefix, boolean mediaWriteGranted,
+                                          List<MediaQuery.VideoItem> items) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete("items", null, null);
+            db.delete("session", null, null);
+            ContentValues s = new ContentValues();
+            s.put("id", 1);
+            s.put("dest_uri", destUri);
+            s.put("rel_prefix", relPrefix);
+            s.put("media_write", mediaWriteGranted ? 1 : 0);
+            s.put("state", SESSION_RUNNING);
+            db.insert("session", null, s);
+            for (MediaQuery.VideoItem it : items) {
+                ContentValues v = new ContentValues();
+                v.put("media_id", it.id);
+                v.put("name", it.displayName);
+                v.put("size", it.size);
+                v.put("rel_path", it.relativePath);
+                v.put("volume", it.volumeName);
+                v.put("date_taken", it.dateTaken);
+                v.put("state", PENDING);
+                db.insertWithOnConflict("items", null, v, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * После смерти процесса «копируемые» ролики снова в очереди. Их .partial из alive дописываются,
+     * а ссылки на пропавшие забываются — такие ролики пишутся заново.
+     */
+    public synchronized void resetInterrupted(Set<String> alive) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues v = new ContentValues();
+            v.put("state", PENDING);
+            db.update("items", v, "state = ?", new String[] { String.valueOf(COPYING) });
+            for (Map.Entry<Long, String> e : tempNames().entrySet()) {
+                if (!alive.contains(e.getValue())) setTempName(e.getKey(), null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public synchronized void finishSession() {
+        ContentValues v = new ContentValues();
+        v.put("state", SESSION_FINISHED);
+        getWritableDatabase().update("session", v, "id = 1", null);
+    }
+
+    public synchronized void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete("items", null, null);
+        db.delete("session", null, null);
+    }
+
+    // === Ролики ===
+
+    public synchronized List<MediaQuery.VideoItem> itemsInState(int state) {
+        List<MediaQuery.VideoItem> out = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT media_id, name, size, rel_path, volume, date_taken FROM items WHERE state = ? ORDER BY rowid",
+                new String[] { String.valueOf(state) })) {
+            while (c.moveToNext()) {
+                out.add(new MediaQuery.VideoItem(c.getLong(0), c.getString(1), c.getLong(2), c.getString(3),
+                        c.getString(4), c.getLong(5)));
+            }
+        }
+        return out;
+    }
+
+    public synchronized int count(int... states) {
+        String where = "";
+        if (states != null && states.length > 0) {
+            StringBuilder sb = new StringBuilder(" WHERE state IN (");
+            for (int i = 0; i < states.length; i++) sb.append(i == 0 ? "" : ",").append(states[i]);
+            where = sb.append(")").toString();
+        }
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM items" + where, null)) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+
+    public synchronized void setState(long mediaId, int state) {
+        ContentValues v = new ContentValues();
+        v.put("state", state);
+        update(mediaId, v);
+    }
+
+    public synchronized void markCopied(long mediaId, String destName, @Nullable String sha256) {
+        ContentValues v = new ContentValues();
+        v.put("state", COPIED);
+        v.put("dest_name", destName);
+        v.put("sha256", sha256);
+        v.putNull("temp_name");
+        update(mediaId, v);
+    }
+
+    public synchronized void markFailed(long mediaId, @Nullable String error) {
+        ContentValues v = new ContentValues();
+        v.put("state", FAILED);
+        v.put("error", error);
+        v.putNull("temp_name");
+        update(mediaId, v);
+    }
+
+    public synchronized @Nullable String destName(long mediaId) {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT dest_name FROM items WHERE media_id = ?", new String[] { String.valueOf(mediaId) })) {
+            return c.moveToFirst() && !c.isNull(0) ? c.getString(0) : null;
+        }
+    }
+
+    /** Временный файл, в который сейчас пишется ролик (см. FileCopier.TempLog); null — нет. */
+    public synchronized void setTempName(long mediaId, @Nullable String tempName) {
+        ContentValues v = new ContentValues();
+        v.put("temp_name", tempName);
+        update(mediaId, v);
+    }
+
+    public synchronized @Nullable String tempName(long mediaId) {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT temp_name FROM items WHERE media_id = ?", new String[] { String.valueOf(mediaId) })) {
+            return c.moveToFirst() && !c.isNull(0) ? c.getString(0) : null;
+        }
+    }
+
+    /** media_id → .partial для всех роликов, у которых он есть. */
+    public synchronized Map<Long, String> tempNames() {
+        Map<Long, String> out = new HashMap<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT media_id, temp_name FROM items WHERE temp_name IS NOT NULL", null)) {
+            while (c.moveToNext()) out.put(c.getLong(0), c.getString(1));
+        }
+        return out;
+    }
+
+    public synchronized List<Long> idsInState(int state) {
+        List<Long> out = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT media_id FROM items WHERE state = ? ORDER BY rowid", new String[] { String.valueOf(state) })) {
+            while (c.moveToNext()) out.add(c.getLong(0));
+        }
+        return out;
+    }
+
+    public synchronized void markAllDeleted(int fromState) {
+        ContentValues v = new ContentValues();
+        v.put("state", DELETED);
+        getWritableDatabase().update("items", v, "state = ?", new String[] { String.valueOf(fromState) });
+    }
+
+    private void update(long mediaId, ContentValues v) {
+        getWritableDatabase().update("items", v, "media_id = ?", new String[] { String.valueOf(mediaId) });
+    }
+}
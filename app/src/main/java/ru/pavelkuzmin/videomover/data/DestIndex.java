@@ -0,0 +1,105 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.pavelkuzmin.videomover.domain.ClipPack;
+import ru.pavelkuzmin.videomover.domain.Fingerprint;
+
+/**
+ * Индекс отпечатков (см. Fingerprint) в корне папки назначения: строки "&lt;fingerprint&gt;\t&lt;name&gt;".
+ * Вместе с кэшем детей SafTree отвечает на «этот ролик уже перенесён?».
+ */
+public class DestIndex {
+    public static final String FILE_NAME = ".videomover_index";
+
+    private final SafTree tree;
+    private final Map<String, String> byFingerprint = new HashMap<>(); // fp → имя
+    private final List<String> pending = new ArrayList<>();
+    @Nullable private Uri indexUri;
+
+    private DestIndex(SafTree tree) {
+        this.tree = tree;
+    }
+
+    /** Читает индекс из корня назначения. Ошибки чтения — пустой индекс. */
+    public static DestIndex load(Context ctx, SafTree tree) {
+        DestIndex idx = new DestIndex(tree);
+        SafTree.Child f = tree.find(FILE_NAME);
+        idx.indexUri = f == null ? null : f.uri;
+        if (idx.indexUri != null) {
+            try (InputStream in = ctx.getContentResolver().openInputStream(idx.indexUri)) {
+                if (in != null) {
+                    BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0) idx.byFingerprint.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            } catch (Exception ignore) {}
+        }
+        return idx;
+    }
+
+    /**
+     * Документ в назначении с таким отпечатком источника, если он всё ещё на месте.
+     * sameBytes — копия побайтовая, и её размер обязан совпасть с размером из отпечатка
+     * (иначе это другой файл с тем же именем или недописанный). Пачку .tar так не проверить —
+     * её содержимое сверяет вызывающий.
+     */
+    public synchronized @Nullable Uri findPresent(String fingerprint, boolean sameBytes) {
+        String name = byFingerprint.get(fingerprint);
+        if (name == null) return null;
+        SafTree.Child c = tree.find(name);
+        if (c == null) return null;
+        if (sameBytes && !name.endsWith(ClipPack.EXTENSION) && c.size != Fingerprint.sizeOf(fingerprint)) return null;
+        return c.uri;
+    }
+
+    /** Имя, под которым ролик с таким отпечатком был записан в назначение. */
+    public synchronized @Nullable String nameOf(String fingerprint) {
+        return byFingerprint.get(fingerprint);
+    }
+
+    public synchronized void add(String fingerprint, String name) {
+        byFingerprint.put(fingerprint, name);
+        pending.add(fingerprint + "\t" + name + "\n");
+    }
+
+    /** Дописывает накопленные строки одной записью. */
+    public synchronized void flush(Context ctx) {
+        if (pending.isEmpty()) return;
+        ContentResolver cr = ctx.getContentResolver();
+        try {
+            if (indexUri == null) {
+                indexUri = tree.createFile("application/octet-stream", FILE_NAME);
+                if (indexUri == null) return;
+            }
+            // если провайдер не умеет дописывать, файл перепишется целиком
+            boolean written = LineFile.append(cr, indexUri, pending, () -> {
+                List<String> all = new ArrayList<>(byFingerprint.size());
+                for (Map.Entry<String, String> e : byFingerprint.entrySet()) {
+                    all.add(e.getKey() + "\t" + e.getValue() + "\n");
+                }
+                return all;
+            });
+            if (!written) return;
+            pending.clear();
+        } catch (Exception ignore) {
+            // индекс — оптимизация; не удалось — в следующий раз скопируем заново
+        }
+    }
+}
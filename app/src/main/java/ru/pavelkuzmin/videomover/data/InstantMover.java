@@ -0,0 +1,128 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Перенос без копирования, когда назначение на том же томе, что и камера
+ * (например, Movies/Archive во внутренней памяти). Меняются только метаданные:
+ * DocumentsContract.moveDocument, если исходник внутри выданного дерева и провайдер умеет move,
+ * иначе MediaStore RELATIVE_PATH на API 30+ (нужно согласие через MediaStore.createWriteRequest).
+ * Если ничего не вышло — вызывающий копирует как обычно.
+ */
+public final class InstantMover {
+
+    private static final String EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+    private static final String PRIMARY_ROOT = "primary:";
+    private static final String[] MEDIA_STORE_VIDEO_DIRS = { "DCIM/", "Movies/", "Pictures/" };
+
+    private InstantMover() {}
+
+    /** RELATIVE_PATH папки назначения ("Movies/Archive/") или null, если дерево не во внутренней памяти. */
+    public static @Nullable String destRelativePath(Uri treeUri) {
+        if (!EXTERNAL_STORAGE_AUTHORITY.equals(treeUri.getAuthority())) return null;
+        String docId;
+        try {
+            docId = DocumentsContract.getTreeDocumentId(treeUri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!docId.startsWith(PRIMARY_ROOT)) return null;
+        String path = docId.substring(PRIMARY_ROOT.length());
+        if (path.isEmpty()) return "";
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    /** Назначение во внутренней памяти и MediaStore разрешает положить туда видео (API 30+). */
+    public static boolean canMoveViaMediaStore(Uri treeUri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return false;
+        String rel = destRelativePath(treeUri);
+        if (rel == null) return false;
+        for (String dir : MEDIA_STORE_VIDEO_DIRS) {
+            if (rel.startsWith(dir)) return true;
+        }
+        return false;
+    }
+
+    public static boolean isSameVolume(Uri treeUri, MediaQuery.VideoItem item) {
+        if (destRelativePath(treeUri) == null) return false;
+        // до API 29 VOLUME_NAME нет — камера всё равно пишет во внутреннюю память
+        return item.volumeName.isEmpty() || MediaStore.VOLUME_EXTERNAL_PRIMARY.equals(item.volumeName);
+    }
+
+    /**
+     * Переносит ролик в корень dest без копирования.
+     * @param mediaStoreGranted пользователь подтвердил createWriteRequest для этих роликов
+     * @return имя файла в назначении или null, если нужен обычный copy+delete
+     */
+    public static @Nullable String tryMove(Context ctx, SafTree dest, MediaQuery.VideoItem item, boolean mediaStoreGranted) {
+        if (!isSameVolume(dest.treeUri(), item)) return null;
+        String destRel = destRelativePath(dest.treeUri());
+        if (destRel == null || destRel.equals(item.relativePath)) return null;
+
+        if (moveViaDocuments(ctx, dest, item)) return item.displayName;
+        if (mediaStoreGranted && canMoveViaMediaStore(dest.treeUri())) return moveViaMediaStore(ctx, dest, item, destRel);
+        return null;
+    }
+
+    private static boolean moveViaDocuments(Context ctx, SafTree dest, MediaQuery.VideoItem item) {
+        String treeDocId = DocumentsContract.getTreeDocumentId(dest.treeUri());
+        String parentPath = item.relativePath.endsWith("/")
+                ? item.relativePath.substring(0, item.relativePath.length() - 1) : item.relativePath;
+        String srcDocId = PRIMARY_ROOT + item.relativePath + item.displayName;
+        // moveDocument требует, чтобы и исходник, и его родитель были внутри выданного дерева
+        String treePrefix = treeDocId.endsWith(":") || treeDocId.endsWith("/") ? treeDocId : treeDocId + "/";
+        if (!srcDocId.startsWith(treePrefix)) return false;
+        if (dest.find(item.displayName) != null) return false; // не перезаписываем
+
+        ContentResolver cr = ctx.getContentResolver();
+        try {
+            Uri src = DocumentsContract.buildDocumentUriUsingTree(dest.treeUri(), srcDocId);
+            Uri parent = DocumentsContract.buildDocumentUriUsingTree(dest.treeUri(), PRIMARY_ROOT + parentPath);
+            Uri moved = DocumentsContract.moveDocument(cr, src, parent, dest.rootUri());
+            if (moved == null) return false;
+            dest.added(item.displayName, moved, item.size);
+            return true;
+        } catch (Exception e) {
+            return false; // UnsupportedOperationException / SecurityException / FileNotFound
+        }
+    }
+
+    /**
+     * При занятом имени MediaStore сам переименует файл ("VID (1).mp4"), поэтому после update
+     * спрашиваем, как ролик называется теперь. null — перенос не удался.
+     */
+    private static @Nullable String moveViaMediaStore(Context ctx, SafTree dest, MediaQuery.VideoItem item, String destRel) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null;
+        ContentResolver cr = ctx.getContentResolver();
+        ContentValues v = new ContentValues();
+        v.put(MediaStore.Video.Media.RELATIVE_PATH, destRel);
+        try {
+            if (cr.update(item.uri(), v, null, null) <= 0) return null;
+        } catch (Exception e) {
+            return null; // нет согласия или имя занято
+        }
+        String name = item.displayName;
+        String[] projection = { MediaStore.Video.Media.DISPLAY_NAME, MediaStore.Video.Media.RELATIVE_PATH };
+        try (Cursor c = cr.query(item.uri(), projection, null, null, null)) {
+            if (c != null && c.moveToFirst()) {
+                if (!c.isNull(0)) name = c.getString(0);
+                String rel = c.getString(1);
+                // путь может прийти без завершающего "/"
+                if (rel != null && !destRel.equals(rel.endsWith("/") ? rel : rel + "/")) return null;
+            }
+        } catch (Exception ignore) {
+            // update прошёл — в худшем случае имя прежнее
+        }
+        dest.added(name, DocumentsContract.buildDocumentUriUsingTree(dest.treeUri(), PRIMARY_ROOT + destRel + name), item.size);
+        return name;
+    }
+}
@@ -0,0 +1,37 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Дописывание строк в служебный файл назначения одной записью. */
+final class LineFile {
+
+    interface AllLines {
+        List<String> get();
+    }
+
+    private LineFile() {}
+
+    /** "wa"; если провайдер не умеет дописывать — перезаписывает файл целиком строками all. */
+    static boolean append(ContentResolver cr, Uri uri, List<String> pending, AllLines all) throws IOException {
+        return write(cr, uri, "wa", pending) || write(cr, uri, "wt", all.get());
+    }
+
+    private static boolean write(ContentResolver cr, Uri uri, String mode, List<String> lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line);
+        try (OutputStream out = cr.openOutputStream(uri, mode)) {
+            if (out == null) return false;
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IllegalArgumentException | UnsupportedOperationException | FileNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -4,15 +4,23 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.provider.MediaStore;
 
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import ru.pavelkuzmin.videomover.util.SortedMerge;
+
 public class MediaQuery {
 
     public static class VideoItem {
@@ -20,12 +28,24 @@ public class MediaQuery {
         public final String displayName;
         public final long size;
         public final String relativePath;
+        public final String volumeName; // "external_primary", "1234-abcd" (SD) …; "" — неизвестно
+        public final long dateTaken; // мс; 0 — неизвестно (например, восстановлено из очереди)
 
         public VideoItem(long id, String displayName, long size, String relativePath) {
+            this(id, displayName, size, relativePath, "");
+        }
+
+        public VideoItem(long id, String displayName, long size, String relativePath, String volumeName) {
+            this(id, displayName, size, relativePath, volumeName, 0);
+        }
+
+        public VideoItem(long id, String displayName, long size, String relativePath, String volumeName, long dateTaken) {
             this.id = id;
             this.displayName = displayName;
             this.size = size;
             this.relativePath = relativePath;
+            this.volumeName = volumeName;
+            this.dateTaken = dateTaken;
         }
 
         public Uri uri() {
@@ -33,6 +53,9 @@ public class MediaQuery {
         }
     }
 
+    /** Имя тома «всё внешнее хранилище» (MediaStore.VOLUME_EXTERNAL появилась только в API 29). */
+    public static final String VOLUME_EXTERNAL = "external";
+
     private static String safe(String s) { return s == null ? "" : s; }
 
     /** Базовая версия (до N шт.). */
@@ -50,45 +73,84 @@ public class MediaQuery {
         return query(ctx, Integer.MAX_VALUE, relPrefix);
     }
 
-    /** Находит самый вероятный RELATIVE_PATH камерной папки по последним 50 видео. */
+    /** Находит самый вероятный RELATIVE_PATH камерной папки по кэшу статистики всех томов. */
     public static @Nullable String detectLikelyCameraRelPath(Context ctx) {
-        ContentResolver cr = ctx.getContentResolver();
-        String[] projection = {
-                MediaStore.Video.Media.RELATIVE_PATH,
-                MediaStore.Video.Media.DATE_TAKEN
-        };
-        String order = MediaStore.Video.Media.DATE_TAKEN + " DESC";
+        String best = null; int bestN = 0; long bestNewest = 0;
+        for (PathStat s : allPathStats(ctx)) {
+            if (!s.relPath.contains("DCIM") || isMessengerPath(s.relPath)) continue;
+            if (s.count > bestN || (s.count == bestN && s.newest > bestNewest)) {
+                bestN = s.count; bestNewest = s.newest; best = s.relPath;
+            }
+        }
+        return best; // может быть null
+    }
 
-        try (Cursor c = cr.query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, projection, null, null, order)) {
-            if (c == null) return null;
-            Map<String, Integer> freq = new HashMap<>();
-            int iPath = c.getColumnIndexOrThrow(MediaStore.Video.Media.RELATIVE_PATH);
-            int count = 0;
-            while (c.moveToNext() && count < 50) {
-                String rel = safe(c.getString(iPath));
-                if (rel.contains("DCIM")) {
-                    freq.put(rel, freq.getOrDefault(rel, 0) + 1);
+    /** Свежие ролики первыми — как сортирует сам MediaStore (DATE_TAKEN DESC). */
+    private static final Comparator<VideoItem> NEWEST_FIRST = (a, b) -> Long.compare(b.dateTaken, a.dateTaken);
+
+    /** Внешние тома MediaStore: внутренняя память, SD-карты, USB. До API 29 — один общий том. */
+    public static List<String> externalVolumes(Context ctx) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return Collections.singletonList(VOLUME_EXTERNAL);
+        List<String> out = new ArrayList<>(MediaStore.getExternalVolumeNames(ctx));
+        Collections.sort(out); // external_primary раньше SD — стабильный порядок при равных датах
+        return out.isEmpty() ? Collections.singletonList(VOLUME_EXTERNAL) : out;
+    }
+
+    /**
+     * Каждый том опрашивается отдельно и параллельно (у SD свой префикс источника, см. SettingsStore),
+     * результаты сливаются в один список по DATE_TAKEN.
+     */
+    private static List<VideoItem> query(Context ctx, int limit, @Nullable String relPrefix) {
+        List<String> volumes = externalVolumes(ctx);
+        if (volumes.size() == 1) {
+            String vol = volumes.get(0);
+            return queryVolume(ctx, vol, limit, prefixFor(ctx, vol, relPrefix));
+        }
+
+        List<List<VideoItem>> perVolume = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (String vol : volumes) {
+            List<VideoItem> slot = new ArrayList<>();
+            perVolume.add(slot);
+            String prefix = prefixFor(ctx, vol, relPrefix);
+            threads.add(new Thread(() -> {
+                try {
+                    slot.addAll(queryVolume(ctx, vol, limit, prefix));
+                } catch (RuntimeException ignore) {
+                    // том отмонтировали посреди запроса — остальные тома это не должно ломать
                 }
-                count++;
-            }
-            String best = null; int bestN = 0;
-            for (Map.Entry<String, Integer> e : freq.entrySet()) {
-                if (e.getValue() > bestN) { bestN = e.getValue(); best = e.getKey(); }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-            return best; // может быть null
         }
+        return SortedMerge.merge(perVolume, NEWEST_FIRST, limit);
     }
 
-    private static List<VideoItem> query(Context ctx, int limit, @Nullable String relPrefix) {
+    private static @Nullable String prefixFor(Context ctx, String volume, @Nullable String relPrefix) {
+        String own = SettingsStore.getVolumeSourceRelPath(ctx, volume);
+        return own != null ? own : relPrefix;
+    }
+
+    private static List<VideoItem> queryVolume(Context ctx, String volume, int limit, @Nullable String relPrefix) {
         ContentResolver cr = ctx.getContentResolver();
         List<VideoItem> out = new ArrayList<>();
+        boolean hasVolumeColumn = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
 
-        String[] projection = new String[] {
+        List<String> projection = new ArrayList<>(Arrays.asList(
                 MediaStore.Video.Media._ID,
                 MediaStore.Video.Media.DISPLAY_NAME,
                 MediaStore.Video.Media.SIZE,
-                MediaStore.Video.Media.RELATIVE_PATH
-        };
+                MediaStore.Video.Media.RELATIVE_PATH,
+                MediaStore.Video.Media.DATE_TAKEN
+        ));
+        if (hasVolumeColumn) projection.add(MediaStore.Video.Media.VOLUME_NAME);
 
         String selection;
         String[] args;
@@ -109,26 +171,27 @@ public class MediaQuery {
 
         String sort = MediaStore.Video.Media.DATE_TAKEN + " DESC";
 
-        try (Cursor c = cr.query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                projection, selection, args, sort)) {
+        try (Cursor c = cr.query(MediaStore.Video.Media.getContentUri(volume),
+                projection.toArray(new String[0]), selection, args, sort)) {
             if (c == null) return out;
             int iId = c.getColumnIndexOrThrow(MediaStore.Video.Media._ID);
             int iName = c.getColumnIndexOrThrow(MediaStore.Video.Media.DISPLAY_NAME);
             int iSize = c.getColumnIndexOrThrow(MediaStore.Video.Media.SIZE);
             int iPath = c.getColumnIndexOrThrow(MediaStore.Video.Media.RELATIVE_PATH);
+            int iDate = c.getColumnIndexOrThrow(MediaStore.Video.Media.DATE_TAKEN);
+            int iVol = hasVolumeColumn ? c.getColumnIndexOrThrow(MediaStore.Video.Media.VOLUME_NAME) : -1;
 
             while (c.moveToNext() && out.size() < limit) {
                 String rel = safe(c.getString(iPath));
                 // фильтр «без мессенджеров»
-                if (rel.contains("WhatsApp") || rel.contains("Telegram") ||
-                        rel.contains("Download") || rel.contains("/Android/media/")) {
-                    continue;
-                }
+                if (isMessengerPath(rel)) continue;
                 out.add(new VideoItem(
                         c.getLong(iId),
                         safe(c.getString(iName)),
                         c.getLong(iSize),
-                        rel
+                        rel,
+                        iVol >= 0 ? safe(c.getString(iVol)) : "",
+                        c.getLong(iDate)
                 ));
             }
         }
@@ -138,37 +201,23 @@ public class MediaQuery {
     public static class PathStat {
         public final String relPath;
         public final int count;
-        public PathStat(String relPath, int count) { this.relPath = relPath; this.count = count; }
+        public final long bytes;
+        public final long newest; // DATE_TAKEN самого свежего ролика, мс
+        public PathStat(String relPath, int count) { this(relPath, count, 0, 0); }
+        public PathStat(String relPath, int count, long bytes, long newest) {
+            this.relPath = relPath; this.count = count; this.bytes = bytes; this.newest = newest;
+        }
     }
 
     /** Возвращает до maxPaths наиболее частые RELATIVE_PATH с приоритетом DCIM/камеры. */
     public static List<PathStat> listLikelyCameraRelPaths(Context ctx, int maxPaths) {
-        ContentResolver cr = ctx.getContentResolver();
-        String[] projection = { MediaStore.Video.Media.RELATIVE_PATH };
-        String order = MediaStore.Video.Media.DATE_TAKEN + " DESC";
-
-        Map<String, Integer> freq = new HashMap<>();
-        try (Cursor c = cr.query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, projection, null, null, order)) {
-            if (c == null) return new ArrayList<>();
-            int iPath = c.getColumnIndexOrThrow(MediaStore.Video.Media.RELATIVE_PATH);
-            int scanned = 0;
-            while (c.moveToNext() && scanned < 500) { // достаточно 500 последних
-                String rel = safe(c.getString(iPath));
-                if (rel.isEmpty()) { scanned++; continue; }
-                // отсекаем явные мессенджеры
-                if (rel.contains("WhatsApp") || rel.contains("Telegram") ||
-                        rel.contains("Download") || rel.contains("/Android/media/")) {
-                    scanned++; continue;
-                }
-                freq.put(rel, freq.getOrDefault(rel, 0) + 1);
-                scanned++;
-            }
-        }
-        // отсортируем: сначала содержащие DCIM/Camera, затем по убыванию частоты
         List<PathStat> all = new ArrayList<>();
-        for (Map.Entry<String, Integer> e : freq.entrySet()) {
-            all.add(new PathStat(e.getKey(), e.getValue()));
+        for (PathStat s : allPathStats(ctx)) {
+            // отсекаем явные мессенджеры
+            if (s.relPath.isEmpty() || isMessengerPath(s.relPath)) continue;
+            all.add(s);
         }
+        // отсортируем: сначала содержащие DCIM/Camera, затем по убыванию частоты
         all.sort((a,b) -> {
             boolean ac = a.relPath.contains("DCIM");
             boolean bc = b.relPath.contains("DCIM");
@@ -179,6 +228,139 @@ public class MediaQuery {
         return all;
     }
 
+    /**
+     * Статистика по путям всех внешних томов: каждый том берётся из своего снимка PathStatsIndex,
+     * одинаковые RELATIVE_PATH на разных томах складываются.
+     */
+    static List<PathStat> allPathStats(Context ctx) {
+        List<String> volumes = externalVolumes(ctx);
+        if (volumes.size() == 1) return PathStatsIndex.get(ctx, volumes.get(0));
+        Map<String, PathStat> merged = new LinkedHashMap<>();
+        for (String vol : volumes) {
+            for (PathStat s : PathStatsIndex.get(ctx, vol)) {
+                PathStat m = merged.get(s.relPath);
+                merged.put(s.relPath, m == null ? s
+                        : new PathStat(s.relPath, m.count + s.count, m.bytes + s.bytes, Math.max(m.newest, s.newest)));
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /** Статистика по путям тома: агрегация в провайдере, а если он отказал — проход по курсору. */
+    static List<PathStat> collectPathStats(Context ctx, String volume) {
+        List<PathStat> agg = aggregatePathStats(ctx, volume);
+        return agg != null ? agg : scanPathStats(ctx, volume);
+    }
+
+    /**
+     * API 30+: GROUP BY RELATIVE_PATH внутри MediaStore — одна строка на папку.
+     * null, если версия старая или провайдер не подтвердил (EXTRA_HONORED_ARGS) агрегатную проекцию/группировку.
+     */
+    static @Nullable List<PathStat> aggregatePathStats(Context ctx, String volume) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null;
+        ContentResolver cr = ctx.getContentResolver();
+        String[] projection = {
+                MediaStore.Video.Media.RELATIVE_PATH,
+                "COUNT(*) AS cnt",
+                "SUM(" + MediaStore.Video.Media.SIZE + ") AS bytes",
+                "MAX(" + MediaStore.Video.Media.DATE_TAKEN + ") AS newest"
+        };
+        Bundle args = new Bundle();
+        args.putString(ContentResolver.QUERY_ARG_SQL_GROUP_BY, MediaStore.Video.Media.RELATIVE_PATH);
+
+        try (Cursor c = cr.query(MediaStore.Video.Media.getContentUri(volume), projection, args, null)) {
+            if (c == null) return null;
+            // если провайдер проигнорировал GROUP BY, COUNT(*) схлопнет всё в одну строку — такой ответ не годится;
+            // не сообщил, что принял группировку, — тоже не верим
+            String[] honored = c.getExtras().getStringArray(ContentResolver.EXTRA_HONORED_ARGS);
+            if (honored == null || !Arrays.asList(honored).contains(ContentResolver.QUERY_ARG_SQL_GROUP_BY)) {
+                return null;
+            }
+            int iPath = c.getColumnIndex(MediaStore.Video.Media.RELATIVE_PATH);
+            int iCnt = c.getColumnIndex("cnt");
+            int iBytes = c.getColumnIndex("bytes");
+            int iNewest = c.getColumnIndex("newest");
+            if (iPath < 0 || iCnt < 0 || iBytes < 0 || iNewest < 0) return null;
+
+            List<PathStat> out = new ArrayList<>(c.getCount());
+            while (c.moveToNext()) {
+                out.add(new PathStat(safe(c.getString(iPath)), c.getInt(iCnt), c.getLong(iBytes), c.getLong(iNewest)));
+            }
+            return out;
+        } catch (IllegalArgumentException | SecurityException | UnsupportedOperationException e) {
+            return null; // MediaProvider для targetSdk 30+ может отвергнуть «сырые» выражения в проекции
+        }
+    }
+
+    /** Полный проход по тому: RELATIVE_PATH → количество, суммарный размер, самая свежая дата. */
+    static List<PathStat> scanPathStats(Context ctx, String volume) {
+        ContentResolver cr = ctx.getContentResolver();
+        String[] projection = {
+                MediaStore.Video.Media.RELATIVE_PATH,
+                MediaStore.Video.Media.SIZE,
+                MediaStore.Video.Media.DATE_TAKEN
+        };
+
+        Map<String, long[]> acc = new HashMap<>(); // [count, bytes, newest]
+        try (Cursor c = cr.query(MediaStore.Video.Media.getContentUri(volume), projection, null, null, null)) {
+            if (c == null) return new ArrayList<>();
+            int iPath = c.getColumnIndexOrThrow(MediaStore.Video.Media.RELATIVE_PATH);
+            int iSize = c.getColumnIndexOrThrow(MediaStore.Video.Media.SIZE);
+            int iDate = c.getColumnIndexOrThrow(MediaStore.Video.Media.DATE_TAKEN);
+            while (c.moveToNext()) {
+                String rel = safe(c.getString(iPath));
+                long[] a = acc.get(rel);
+                if (a == null) { a = new long[3]; acc.put(rel, a); }
+                a[0]++;
+                a[1] += c.getLong(iSize);
+                a[2] = Math.max(a[2], c.getLong(iDate));
+            }
+        }
+        List<PathStat> out = new ArrayList<>(acc.size());
+        for (Map.Entry<String, long[]> e : acc.entrySet()) {
+            long[] a = e.getValue();
+            out.add(new PathStat(e.getKey(), (int) a[0], a[1], a[2]));
+        }
+        return out;
+    }
+
+    /**
+     * Дешёвая «подпись» состояния тома для инвалидации кэша.
+     * API 30+: версия + generation MediaStore; ниже — число строк и максимальный _ID.
+     */
+    static @Nullable String librarySignature(Context ctx, String volume) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return "g:" + MediaStore.getVersion(ctx, volume) + ":" + MediaStore.getGeneration(ctx, volume);
+            }
+            String[] projection = { MediaStore.Video.Media._ID };
+            String order = MediaStore.Video.Media._ID + " DESC";
+            try (Cursor c = ctx.getContentResolver().query(
+                    MediaStore.Video.Media.getContentUri(volume), projection, null, null, order)) {
+                if (c == null) return null;
+                long maxId = c.moveToFirst() ? c.getLong(0) : 0;
+                return "c:" + c.getCount() + ":" + maxId;
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static boolean isMessengerPath(String rel) {
+        return rel.contains("WhatsApp") || rel.contains("Telegram") ||
+                rel.contains("Download") || rel.contains("/Android/media/");
+    }
+
+    /** Том, на котором лежит видео (API 29+); null — не удалось определить. */
+    public static @Nullable String getVolumeNameForVideoUri(Context ctx, Uri videoUri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return null;
+        String[] projection = { MediaStore.Video.Media.VOLUME_NAME };
+        try (Cursor c = ctx.getContentResolver().query(videoUri, projection, null, null, null)) {
+            if (c != null && c.moveToFirst()) return c.getString(0);
+        } catch (Exception ignore) {}
+        return null;
+    }
+
     /** Берём RELATIVE_PATH для конкретного content:Uri видео (после ACTION_OPEN_DOCUMENT). */
     public static @Nullable String getRelativePathForVideoUri(Context ctx, Uri videoUri) {
         ContentResolver cr = ctx.getContentResolver();
@@ -0,0 +1,59 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.pavelkuzmin.videomover.domain.PageCache;
+import ru.pavelkuzmin.videomover.domain.SourceCatalog;
+
+/**
+ * Ролики камеры из MediaStore (все внешние тома, см. MediaQuery) как SourceCatalog.
+ * lowMemory — исходник читается мимо page cache (PageCache.readOnce).
+ */
+public class MediaStoreCatalog implements SourceCatalog {
+
+    private final Context ctx;
+    @Nullable private final String relPrefix;
+    private final boolean lowMemory;
+
+    public MediaStoreCatalog(Context ctx, @Nullable String relPrefix, boolean lowMemory) {
+        this.ctx = ctx.getApplicationContext();
+        this.relPrefix = relPrefix;
+        this.lowMemory = lowMemory;
+    }
+
+    @Override public List<Item> list() {
+        List<MediaQuery.VideoItem> videos = MediaQuery.findCameraVideosList(ctx, relPrefix);
+        List<Item> out = new ArrayList<>(videos.size());
+        for (MediaQuery.VideoItem v : videos) out.add(new Item(v.id, v.displayName, v.size));
+        return out;
+    }
+
+    @Override public InputStream open(Item item) throws IOException {
+        return open(Uri.withAppendedPath(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, String.valueOf(item.id)));
+    }
+
+    /** Поток ролика по его content:// URI (у элементов очереди он уже есть). */
+    public InputStream open(Uri uri) throws IOException {
+        ContentResolver cr = ctx.getContentResolver();
+        if (lowMemory) {
+            ParcelFileDescriptor pfd = cr.openFileDescriptor(uri, "r");
+            if (pfd == null) throw new FileNotFoundException(uri.toString());
+            return PageCache.readOnce(pfd);
+        }
+        InputStream in = cr.openInputStream(uri);
+        if (in == null) throw new FileNotFoundException(uri.toString());
+        return in;
+    }
+}
@@ -0,0 +1,148 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш статистики RELATIVE_PATH по тому (путь → количество, байты, самая свежая дата).
+ * Каждый внешний том (внутренняя память, SD, USB) — отдельный снимок со своей подписью.
+ * Хранится в памяти и в filesDir, пересчитывается только когда меняется подпись MediaStore
+ * (generation на API 30+) или ContentObserver сообщил об изменениях.
+ * Вызывать только из фонового потока.
+ */
+public class PathStatsIndex {
+    private static final String FILE_PREFIX = "path_stats_";
+
+    private static final Map<String, Snapshot> MEM = new HashMap<>();
+    // счётчик уведомлений ContentObserver; снимок валиден, пока счётчик не сдвинулся
+    private static final AtomicLong CHANGES = new AtomicLong();
+    private static ContentObserver observer;
+    private static final Set<String> OBSERVED = new HashSet<>(); // тома, на которые подписан observer
+
+    private static class Snapshot {
+        final String signature;
+        final List<MediaQuery.PathStat> stats;
+        long seenChanges = -1;
+        Snapshot(String signature, List<MediaQuery.PathStat> stats) {
+            this.signature = signature; this.stats = stats;
+        }
+    }
+
+    /** Статистика по всем видео тома; при актуальном кэше — без обхода библиотеки. */
+    public static synchronized List<MediaQuery.PathStat> get(Context ctx, String volume) {
+        Context app = ctx.getApplicationContext();
+        ensureObserver(app, volume);
+
+        long changes = CHANGES.get();
+        Snapshot mem = MEM.get(volume);
+        if (mem != null && mem.seenChanges == changes) return mem.stats;
+
+        String sig = MediaQuery.librarySignature(app, volume);
+        if (mem == null) mem = load(app, volume);
+        if (mem != null && sig != null && sig.equals(mem.signature)) {
+            mem.seenChanges = changes;
+            MEM.put(volume, mem);
+            return mem.stats;
+        }
+
+        Snapshot fresh = new Snapshot(sig, Collections.unmodifiableList(MediaQuery.collectPathStats(app, volume)));
+        fresh.seenChanges = changes;
+        MEM.put(volume, fresh);
+        if (sig != null) save(app, volume, fresh);
+        return fresh.stats;
+    }
+
+    /** Прогрев кэша в фоне, чтобы диалоги настроек открывались мгновенно. */
+    public static void warmUpAsync(Context ctx) {
+        Context app = ctx.getApplicationContext();
+        new Thread(() -> {
+            for (String volume : MediaQuery.externalVolumes(app)) {
+                try { get(app, volume); } catch (Exception ignore) {}
+            }
+        }).start();
+    }
+
+    private static void ensureObserver(Context app, String volume) {
+        if (observer == null) {
+            // handler == null: onChange приходит в binder-потоке и не трогает главный
+            observer = new ContentObserver(null) {
+                @Override public void onChange(boolean selfChange, @Nullable Uri uri) {
+                    CHANGES.incrementAndGet();
+                }
+            };
+        }
+        if (!OBSERVED.add(volume)) return;
+        try {
+            // уведомления SD-карты приходят на её собственный URI, не на "external"
+            app.getContentResolver().registerContentObserver(
+                    MediaStore.Video.Media.getContentUri(volume), true, observer);
+        } catch (SecurityException ignore) {
+            // без разрешения на медиа — просто полагаемся на подпись
+        }
+    }
+
+    private static File file(Context app, String volume) {
+        return new File(app.getFilesDir(), FILE_PREFIX + volume + ".json");
+    }
+
+    private static @Nullable Snapshot load(Context app, String volume) {
+        File f = file(app, volume);
+        if (!f.exists()) return null;
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0, r;
+            while (off < data.length && (r = in.read(data, off, data.length - off)) != -1) off += r;
+            JSONObject root = new JSONObject(new String(data, 0, off, StandardCharsets.UTF_8));
+            JSONArray arr = root.getJSONArray("paths");
+            List<MediaQuery.PathStat> stats = new ArrayList<>(arr.length());
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                stats.add(new MediaQuery.PathStat(o.getString("p"), o.getInt("n"), o.getLong("b"), o.getLong("t")));
+            }
+            return new Snapshot(root.getString("sig"), Collections.unmodifiableList(stats));
+        } catch (Exception e) {
+            return null; // битый кэш — пересчитаем
+        }
+    }
+
+    private static void save(Context app, String volume, Snapshot s) {
+        try {
+            JSONArray arr = new JSONArray();
+            for (MediaQuery.PathStat p : s.stats) {
+                arr.put(new JSONObject()
+                        .put("p", p.relPath).put("n", p.count).put("b", p.bytes).put("t", p.newest));
+            }
+            JSONObject root = new JSONObject().put("sig", s.signature).put("paths", arr);
+            File tmp = new File(app.getFilesDir(), FILE_PREFIX + volume + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            //noinspection ResultOfMethodCallIgnored
+            tmp.renameTo(file(app, volume));
+        } catch (Exception ignore) {
+            // кэш необязателен
+        }
+    }
+}
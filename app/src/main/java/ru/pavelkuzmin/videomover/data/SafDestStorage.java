@@ -0,0 +1,97 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.pavelkuzmin.videomover.domain.Preallocation;
+import ru.pavelkuzmin.videomover.domain.ProcessorDest;
+
+/** DestStorage поверх SafTree: имена разрешаются через кэш детей, без лишних запросов к провайдеру. */
+public class SafDestStorage implements ProcessorDest {
+    /** Последний мегабайт перед сбоем мог дописаться не целиком — его перезаписываем. */
+    private static final long RESUME_ALIGN = 1024 * 1024;
+
+    private final ContentResolver cr;
+    private final SafTree tree;
+    private final Map<String, Long> written = new HashMap<>(); // имя → сколько байт точно записано
+
+    public SafDestStorage(Context ctx, SafTree tree) {
+        this.cr = ctx.getContentResolver();
+        this.tree = tree;
+    }
+
+    /** Uri документа в корне по имени; для стадий обработки, которым нужен дескриптор. */
+    @Override public Uri uriOf(String name) throws FileNotFoundException {
+        SafTree.Child c = tree.find(name);
+        if (c == null) throw new FileNotFoundException(name);
+        return c.uri;
+    }
+
+    @Override public String reserveUniqueName(String base, String ext) { return tree.reserveUniqueName(base, ext); }
+
+    @Override public void release(String name) { tree.release(name); }
+
+    @Override public void create(String name) throws IOException {
+        if (tree.createFile("video/*", name) == null) throw new IOException("Не удалось создать " + name);
+    }
+
+    @Override public OutputStream openOutput(String name) throws IOException {
+        OutputStream out = cr.openOutputStream(uriOf(name), "wt");
+        if (out == null) throw new IOException("Нет доступа к потоку");
+        return out;
+    }
+
+    /**
+     * Отчёт стадии обработки о сбое: первые length байт файла записаны. length &lt; 0 — отчёта нет.
+     * Размеру файла при предвыделении верить нельзя — он сразу полный, а хвост читается нулями.
+     */
+    @Override public synchronized void setWritten(String name, long length) {
+        if (length < 0) written.remove(name);
+        else written.put(name, length);
+    }
+
+    /** Не дальше отчёта о записанном (если он есть) и не дальше размера файла, с выравниванием вниз. */
+    @Override public long resumableLength(String name) throws IOException {
+        long size;
+        try (ParcelFileDescriptor pfd = cr.openFileDescriptor(uriOf(name), "r")) {
+            size = pfd == null ? -1 : pfd.getStatSize();
+        }
+        Long reported;
+        synchronized (this) {
+            reported = written.get(name);
+        }
+        if (reported != null) size = Math.min(size, reported);
+        return size <= 0 ? 0 : size / RESUME_ALIGN * RESUME_ALIGN;
+    }
+
+    @Override public OutputStream openOutput(String name, long offset) throws IOException {
+        ParcelFileDescriptor pfd = cr.openFileDescriptor(uriOf(name), "rw");
+        if (pfd == null) throw new IOException("Нет дескриптора");
+        try {
+            Preallocation.trim(pfd.getFileDescriptor(), offset);
+            Preallocation.seek(pfd.getFileDescriptor(), offset);
+        } catch (IOException e) {
+            pfd.close();
+            throw e;
+        }
+        return new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+    }
+
+    @Override public void rename(String from, String to) throws IOException {
+        if (tree.rename(uriOf(from), from, to) == null) throw new IOException("Не удалось переименовать " + from);
+    }
+
+    @Override public void delete(String name) {
+        setWritten(name, -1);
+        SafTree.Child c = tree.find(name);
+        if (c != null) tree.delete(c.uri, name);
+    }
+}
@@ -0,0 +1,193 @@
+package ru.pavelkuzmin.videomover.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.pavelkuzmin.videomover.domain.UniqueNames;
+
+/**
+ * Тонкая обёртка над DocumentsContract для папки назначения вместо DocumentFile.
+ * Список детей корня читается одним запросом с нужными колонками и кэшируется вместе с document ID,
+ * поэтому на один скопированный файл приходится 3 обращения к провайдеру: create, open, rename.
+ */
+public class SafTree {
+
+    public static class Child {
+        public final String docId;
+        public final Uri uri;
+        public final long size;
+        public Child(String docId, Uri uri, long size) { this.docId = docId; this.uri = uri; this.size = size; }
+    }
+
+    private static final String[] CHILD_PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE
+    };
+
+    private final ContentResolver cr;
+    private final Uri treeUri;
+    private final String rootDocId;
+    private final Uri rootUri;
+    private final boolean writable;
+
+    private Map<String, Child> children; // имя → документ; null — ещё не читали
+    private UniqueNames names;           // те же имена плюс занятые незавершёнными копиями; строится вместе с children
+
+    private SafTree(ContentResolver cr, Uri treeUri, String rootDocId, boolean writable) {
+        this.cr = cr;
+        this.treeUri = treeUri;
+        this.rootDocId = rootDocId;
+        this.rootUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, rootDocId);
+        this.writable = writable;
+    }
+
+    /** Открывает дерево: один запрос за флагами корня. null — дерево недоступно. */
+    public static @Nullable SafTree open(Context ctx, Uri treeUri) {
+        ContentResolver cr = ctx.getContentResolver();
+        String rootDocId;
+        try {
+            rootDocId = DocumentsContract.getTreeDocumentId(treeUri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        boolean granted = ctx.checkCallingOrSelfUriPermission(treeUri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION)
+                == PackageManager.PERMISSION_GRANTED;
+        Uri root = DocumentsContract.buildDocumentUriUsingTree(treeUri, rootDocId);
+        String[] projection = { DocumentsContract.Document.COLUMN_FLAGS };
+        try (Cursor c = cr.query(root, projection, null, null, null)) {
+            if (c == null || !c.moveToFirst()) return null;
+            int flags = c.getInt(0);
+            boolean canCreate = (flags & DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE) != 0;
+            return new SafTree(cr, treeUri, rootDocId, granted && canCreate);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Uri treeUri() { return treeUri; }
+    public Uri rootUri() { return rootUri; }
+    public boolean canWrite() { return writable; }
+
+    /** Документ в корне по имени (из кэша; первый вызов читает список детей). */
+    public synchronized @Nullable Child find(String name) {
+        return children().get(name);
+    }
+
+    /** Имена всех файлов в корне (из кэша). */
+    public synchronized List<String> names() {
+        return new ArrayList<>(children().keySet());
+    }
+
+    /** "name.ext", "name (1).ext", … — первое свободное имя; оно резервируется до rename/release. */
+    public synchronized String reserveUniqueName(String base, String ext) {
+        children();
+        return names.reserve(base, ext);
+    }
+
+    public synchronized void release(String name) {
+        if (names != null) names.release(name);
+    }
+
+    /** DocumentsContract.createDocument без повторного запроса метаданных. */
+    public @Nullable Uri createFile(String mime, String name) throws FileNotFoundException {
+        Uri uri = DocumentsContract.createDocument(cr, rootUri, mime, name);
+        if (uri != null) {
+            synchronized (this) {
+                children().put(name, new Child(DocumentsContract.getDocumentId(uri), uri, 0));
+                names.taken(name);
+            }
+        }
+        return uri;
+    }
+
+    /** Файл появился в корне в обход createFile (перемещён сюда) — вносим его в кэш. */
+    public synchronized void added(String name, Uri doc, long size) {
+        children().put(name, new Child(DocumentsContract.getDocumentId(doc), doc, size));
+        names.taken(name);
+    }
+
+    public @Nullable Uri rename(Uri doc, String oldName, String newName) throws FileNotFoundException {
+        Uri renamed = DocumentsContract.renameDocument(cr, doc, newName);
+        synchronized (this) {
+            Map<String, Child> kids = children();
+            if (renamed != null) {
+                Child old = kids.remove(oldName);
+                kids.put(newName, new Child(DocumentsContract.getDocumentId(renamed), renamed,
+                        old == null ? 0 : old.size));
+                names.freed(oldName);
+                names.taken(newName);
+            } else {
+                names.release(newName);
+            }
+        }
+        return renamed;
+    }
+
+    public boolean delete(Uri doc, String name) {
+        synchronized (this) {
+            children().remove(name);
+            names.freed(name);
+        }
+        try {
+            return DocumentsContract.deleteDocument(cr, doc);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Удаляет из корня файлы с таким окончанием, кроме keep (например, брошенные .partial).
+     * @return те из keep, что нашлись
+     */
+    public Set<String> deleteBySuffix(String suffix, Set<String> keep) {
+        List<Map.Entry<String, Child>> victims = new ArrayList<>();
+        Set<String> kept = new HashSet<>();
+        synchronized (this) {
+            for (Map.Entry<String, Child> e : children().entrySet()) {
+                if (!e.getKey().endsWith(suffix)) continue;
+                if (keep.contains(e.getKey())) kept.add(e.getKey());
+                else victims.add(e);
+            }
+        }
+        for (Map.Entry<String, Child> e : victims) delete(e.getValue().uri, e.getKey());
+        return kept;
+    }
+
+    private Map<String, Child> children() {
+        if (children != null) return children;
+        Map<String, Child> out = new HashMap<>();
+        Uri q = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, rootDocId);
+        try (Cursor c = cr.query(q, CHILD_PROJECTION, null, null, null)) {
+            if (c != null) {
+                while (c.moveToNext()) {
+                    String docId = c.getString(0);
+                    String name = c.getString(1);
+                    if (docId == null || name == null) continue;
+                    long size = c.isNull(2) ? 0 : c.getLong(2);
+                    out.put(name, new Child(docId, DocumentsContract.buildDocumentUriUsingTree(treeUri, docId), size));
+                }
+            }
+        } catch (Exception ignore) {
+            // пустой список: в худшем случае получим "name (1)" от провайдера
+        }
+        children = out;
+        names = new UniqueNames(out.keySet());
+        return out;
+    }
+}
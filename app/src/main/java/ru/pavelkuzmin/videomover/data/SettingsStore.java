@@ -4,17 +4,45 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
 
+import androidx.annotation.Nullable;
+
+import ru.pavelkuzmin.videomover.domain.DurableCommit;
+import ru.pavelkuzmin.videomover.domain.MediaProcessor;
+
 public class SettingsStore {
     private static final String PREFS = "videomover_prefs";
+    // секреты — отдельным файлом: он исключён из резервных копий и переноса (res/xml/*backup*, data_extraction_rules)
+    private static final String CREDENTIALS = "videomover_credentials";
 
     private static final String KEY_DEST_URI = "dest_tree_uri";
     private static final String KEY_SOURCE_REL_PATH = "source_rel_path";
     private static final String KEY_DELETE_AFTER = "delete_after"; // default true
+    private static final String KEY_RATE_LIMIT_MBPS = "rate_limit_mbps"; // 0 = без ограничения
+    private static final String KEY_PARALLELISM = "parallelism"; // default 1
+    private static final String KEY_ARCHIVE_MODE = "archive_mode"; // passthrough | remux
+    private static final String KEY_STRONG_VERIFY = "strong_verify"; // default false
+    private static final String KEY_DURABILITY = "durability"; // none | file | group
+    private static final String KEY_LOW_MEMORY = "low_memory"; // default false
+    private static final String KEY_PACK_THRESHOLD_MB = "pack_threshold_mb"; // 0 — не упаковывать
+    private static final String KEY_SCRUB_ENABLED = "scrub_enabled"; // default false
+    private static final String KEY_SCRUB_CURSOR = "scrub_cursor"; // "" — следующий проход с начала
+    private static final String KEY_SCRUB_CHECKED = "scrub_checked"; // всего проверено файлов
+    private static final String KEY_SCRUB_BYTES = "scrub_bytes";
+    private static final String KEY_SCRUB_CORRUPT = "scrub_corrupt"; // всего найдено битых/нечитаемых
+    private static final String KEY_SCRUB_LAST_RUN = "scrub_last_run"; // System.currentTimeMillis()
+    private static final String KEY_SCRUB_LAST_FULL = "scrub_last_full"; // когда закончился полный проход
+    private static final String KEY_WEBDAV_URL = "webdav_url"; // пусто — назначение SAF
+    private static final String KEY_WEBDAV_USER = "webdav_user";
+    private static final String KEY_WEBDAV_PASSWORD = "webdav_password";
 
     private static SharedPreferences sp(Context ctx) {
         return ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
     }
 
+    private static SharedPreferences credentials(Context ctx) {
+        return ctx.getSharedPreferences(CREDENTIALS, Context.MODE_PRIVATE);
+    }
+
     // DEST (SAF tree URI)
     public static void setDestTreeUri(Context ctx, Uri uri) {
         sp(ctx).edit().putString(KEY_DEST_URI, uri == null ? null : uri.toString()).apply();
@@ -32,6 +60,14 @@ public class SettingsStore {
         return sp(ctx).getString(KEY_SOURCE_REL_PATH, null);
     }
 
+    // Свой префикс для отдельного тома (SD-карта); null — действует общий
+    public static void setVolumeSourceRelPath(Context ctx, String volume, @Nullable String relPath) {
+        sp(ctx).edit().putString(KEY_SOURCE_REL_PATH + "@" + volume, relPath).apply();
+    }
+    public static @Nullable String getVolumeSourceRelPath(Context ctx, String volume) {
+        return sp(ctx).getString(KEY_SOURCE_REL_PATH + "@" + volume, null);
+    }
+
     // Delete after copy
     public static boolean isDeleteAfter(Context ctx) {
         return sp(ctx).getBoolean(KEY_DELETE_AFTER, true);
@@ -39,4 +75,124 @@ public class SettingsStore {
     public static void setDeleteAfter(Context ctx, boolean value) {
         sp(ctx).edit().putBoolean(KEY_DELETE_AFTER, value).apply();
     }
+
+    // Ограничение скорости записи, МБ/с (0 — без ограничения)
+    public static int getRateLimitMbps(Context ctx) {
+        return sp(ctx).getInt(KEY_RATE_LIMIT_MBPS, 0);
+    }
+    public static void setRateLimitMbps(Context ctx, int value) {
+        sp(ctx).edit().putInt(KEY_RATE_LIMIT_MBPS, Math.max(0, value)).apply();
+    }
+
+    // Ролики не больше этого размера (МБ) складываются в одну пачку .tar за сессию (0 — выключено)
+    public static int getPackThresholdMb(Context ctx) {
+        return sp(ctx).getInt(KEY_PACK_THRESHOLD_MB, 0);
+    }
+    public static void setPackThresholdMb(Context ctx, int value) {
+        sp(ctx).edit().putInt(KEY_PACK_THRESHOLD_MB, Math.max(0, value)).apply();
+    }
+
+    // Сколько файлов копировать одновременно (при нагреве уменьшается автоматически)
+    public static int getParallelism(Context ctx) {
+        return sp(ctx).getInt(KEY_PARALLELISM, 1);
+    }
+    public static void setParallelism(Context ctx, int value) {
+        sp(ctx).edit().putInt(KEY_PARALLELISM, Math.max(1, value)).apply();
+    }
+
+    // Обработка при копировании (MediaProcessor.MODE_*)
+    public static String getArchiveMode(Context ctx) {
+        return sp(ctx).getString(KEY_ARCHIVE_MODE, MediaProcessor.MODE_PASSTHROUGH);
+    }
+    public static void setArchiveMode(Context ctx, String mode) {
+        sp(ctx).edit().putString(KEY_ARCHIVE_MODE, mode).apply();
+    }
+
+    // Полный SHA-256 перед пропуском «уже перенесённых» роликов
+    public static boolean isStrongVerify(Context ctx) {
+        return sp(ctx).getBoolean(KEY_STRONG_VERIFY, false);
+    }
+    public static void setStrongVerify(Context ctx, boolean value) {
+        sp(ctx).edit().putBoolean(KEY_STRONG_VERIFY, value).apply();
+    }
+
+    // Не держать копируемые ролики в page cache (PageCache)
+    public static boolean isLowMemory(Context ctx) {
+        return sp(ctx).getBoolean(KEY_LOW_MEMORY, false);
+    }
+    public static void setLowMemory(Context ctx, boolean value) {
+        sp(ctx).edit().putBoolean(KEY_LOW_MEMORY, value).apply();
+    }
+
+    // Когда скопированный файл считается записанным на диск (DurableCommit.MODE_*)
+    public static String getDurability(Context ctx) {
+        return sp(ctx).getString(KEY_DURABILITY, DurableCommit.MODE_GROUP);
+    }
+    public static void setDurability(Context ctx, String mode) {
+        sp(ctx).edit().putString(KEY_DURABILITY, mode).apply();
+    }
+
+    // Папка на WebDAV-сервере вместо SAF (см. WebDavStorage); null — не используется
+    public static @Nullable String getWebDavUrl(Context ctx) {
+        String v = sp(ctx).getString(KEY_WEBDAV_URL, null);
+        return v == null || v.trim().isEmpty() ? null : v.trim();
+    }
+    public static void setWebDavUrl(Context ctx, @Nullable String url) {
+        sp(ctx).edit().putString(KEY_WEBDAV_URL, url).apply();
+    }
+    public static @Nullable String getWebDavUser(Context ctx) {
+        return sp(ctx).getString(KEY_WEBDAV_USER, null);
+    }
+    public static void setWebDavUser(Context ctx, @Nullable String user) {
+        sp(ctx).edit().putString(KEY_WEBDAV_USER, user).apply();
+    }
+    public static @Nullable String getWebDavPassword(Context ctx) {
+        SharedPreferences old = sp(ctx);
+        if (old.contains(KEY_WEBDAV_PASSWORD)) {
+            // прежние версии хранили пароль в общих настройках, которые попадают в резервную копию
+            setWebDavPassword(ctx, old.getString(KEY_WEBDAV_PASSWORD, null));
+            old.edit().remove(KEY_WEBDAV_PASSWORD).apply();
+        }
+        return credentials(ctx).getString(KEY_WEBDAV_PASSWORD, null);
+    }
+    public static void setWebDavPassword(Context ctx, @Nullable String password) {
+        credentials(ctx).edit().putString(KEY_WEBDAV_PASSWORD, password).apply();
+    }
+
+    // Фоновая проверка архива (ScrubJobService)
+    public static boolean isScrubEnabled(Context ctx) {
+        return sp(ctx).getBoolean(KEY_SCRUB_ENABLED, false);
+    }
+    public static void setScrubEnabled(Context ctx, boolean value) {
+        sp(ctx).edit().putBoolean(KEY_SCRUB_ENABLED, value).apply();
+    }
+    public static String getScrubCursor(Context ctx) {
+        return sp(ctx).getString(KEY_SCRUB_CURSOR, "");
+    }
+    public static void setScrubCursor(Context ctx, String cursor) {
+        sp(ctx).edit().putString(KEY_SCRUB_CURSOR, cursor).apply();
+    }
+    public static int getScrubChecked(Context ctx) {
+        return sp(ctx).getInt(KEY_SCRUB_CHECKED, 0);
+    }
+    public static int getScrubCorrupt(Context ctx) {
+        return sp(ctx).getInt(KEY_SCRUB_CORRUPT, 0);
+    }
+    public static long getScrubLastFull(Context ctx) {
+        return sp(ctx).getLong(KEY_SCRUB_LAST_FULL, 0);
+    }
+
+    /** Итог сеанса проверки: новый курсор и накопительные счётчики — одной записью. */
+    public static void recordScrubPass(Context ctx, String cursor, int checked, long bytes, int bad, boolean completed) {
+        SharedPreferences p = sp(ctx);
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor e = p.edit()
+                .putString(KEY_SCRUB_CURSOR, cursor)
+                .putInt(KEY_SCRUB_CHECKED, p.getInt(KEY_SCRUB_CHECKED, 0) + checked)
+                .putLong(KEY_SCRUB_BYTES, p.getLong(KEY_SCRUB_BYTES, 0) + bytes)
+                .putInt(KEY_SCRUB_CORRUPT, p.getInt(KEY_SCRUB_CORRUPT, 0) + bad)
+                .putLong(KEY_SCRUB_LAST_RUN, now);
+        if (completed) e.putLong(KEY_SCRUB_LAST_FULL, now);
+        e.apply();
+    }
 }
@@ -0,0 +1,455 @@
+package ru.pavelkuzmin.videomover.data;
+
+import androidx.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import ru.pavelkuzmin.videomover.domain.DestStorage;
+import ru.pavelkuzmin.videomover.domain.NoSpaceException;
+import ru.pavelkuzmin.videomover.domain.UniqueNames;
+
+/**
+ * Папка на WebDAV-сервере (NAS) как назначение переноса.
+ * Файл уходит кусками по CHUNK байт отдельными PUT: пока один кусок летит по сети, следующий
+ * уже наполняется (конвейер на два буфера). Первый кусок — обычный PUT, остальные — с Content-Range,
+ * так что оборванную загрузку можно продолжить с последнего подтверждённого смещения.
+ * ".partial" → финальное имя — через MOVE. Соединения переиспользуются общим пулом keep-alive,
+ * поэтому несколько воркеров грузят параллельно без лишних рукопожатий.
+ * Сервер должен принимать частичный PUT (Apache mod_dav и совместимые).
+ */
+public class WebDavStorage implements DestStorage {
+
+    static final int DEFAULT_CHUNK = 8 * 1024 * 1024;
+    private static final String DAV_NS = "DAV:";
+    private static final MediaType OCTET = MediaType.get("application/octet-stream");
+    private static final MediaType XML = MediaType.get("application/xml; charset=utf-8");
+    private static final byte[] EMPTY = new byte[0];
+
+    /** Один клиент на процесс: общий пул соединений на все воркеры и сессии. */
+    private static final OkHttpClient HTTP = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .writeTimeout(60, TimeUnit.SECONDS)
+            .build();
+
+    private final String folderUrl; // всегда со слешем на конце
+    @Nullable private final String auth;
+    private final int chunk;
+    private final UniqueNames names;
+    private final Map<String, Long> sizes;
+
+    private WebDavStorage(String folderUrl, @Nullable String auth, int chunk, Map<String, Long> sizes) {
+        this.folderUrl = folderUrl;
+        this.auth = auth;
+        this.chunk = chunk;
+        this.sizes = sizes;
+        this.names = new UniqueNames(sizes.keySet());
+    }
+
+    /**
+     * https:// — любой сервер; http:// — только адрес в локальной сети (NAS дома редко умеет TLS),
+     * чтобы пароль в Basic-авторизации и ролики не уходили открытым текстом через интернет.
+     */
+    public static boolean isWebDavUrl(@Nullable String url) {
+        HttpUrl u = url == null ? null : HttpUrl.parse(url);
+        if (u == null) return false;
+        return u.isHttps() || isLocalHost(u.host());
+    }
+
+    /**
+     * Литерал частного/локального адреса (10/8, 172.16/12, 192.168/16, 169.254/16, 127/8, fc00::/7, fe80::/10, ::1)
+     * или имя без точки / в зонах .local, .lan, .home.arpa. Имена в DNS не разрешаем — решаем по записи.
+     */
+    static boolean isLocalHost(String host) {
+        String h = host.toLowerCase(Locale.ROOT);
+        if (h.contains(":")) {
+            return h.equals("::1") || h.startsWith("fc") || h.startsWith("fd")
+                    || h.startsWith("fe8") || h.startsWith("fe9") || h.startsWith("fea") || h.startsWith("feb");
+        }
+        String[] parts = h.split("\\.");
+        if (parts.length == 4 && h.matches("[0-9.]+")) {
+            int a, b;
+            try {
+                a = Integer.parseInt(parts[0]);
+                b = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return a == 10 || a == 127 || (a == 172 && b >= 16 && b <= 31)
+                    || (a == 192 && b == 168) || (a == 169 && b == 254);
+        }
+        return !h.contains(".") || h.endsWith(".local") || h.endsWith(".lan") || h.endsWith(".home.arpa");
+    }
+
+    /** Читает список папки (PROPFIND Depth: 1). Сеть — не вызывать на главном потоке. */
+    public static WebDavStorage open(String folderUrl, @Nullable String user, @Nullable String password) throws IOException {
+        return open(folderUrl, user, password, DEFAULT_CHUNK);
+    }
+
+    static WebDavStorage open(String folderUrl, @Nullable String user, @Nullable String password, int chunk)
+            throws IOException {
+        if (!isWebDavUrl(folderUrl)) {
+            throw new IOException("Открытый http:// разрешён только для адресов локальной сети: " + folderUrl);
+        }
+        String base = folderUrl.endsWith("/") ? folderUrl : folderUrl + "/";
+        String auth = user == null || user.isEmpty() ? null
+                : Credentials.basic(user, password == null ? "" : password, StandardCharsets.UTF_8);
+        Map<String, Long> listing = propfind(base, auth, "1");
+        return new WebDavStorage(base, auth, chunk, listing);
+    }
+
+    @Override public String reserveUniqueName(String base, String ext) {
+        return names.reserve(base, ext);
+    }
+
+    @Override public void release(String name) {
+        names.release(name);
+    }
+
+    /**
+     * Пустой файл; If-None-Match: * — не затираем чужой файл с тем же именем.
+     * 412 на пустой файл — это наш же прошлый PUT, ответ на который потерялся (повтор FileCopier или OkHttp).
+     */
+    @Override public void create(String name) throws IOException {
+        Request req = request(urlOf(name)).header("If-None-Match", "*").put(RequestBody.create(EMPTY, OCTET)).build();
+        int code;
+        try (Response r = HTTP.newCall(req).execute()) {
+            code = r.code();
+            if (code != 412) check(r, "PUT");
+        }
+        if (code == 412 && remoteLength(name) != 0) throw new IOException("WebDAV PUT: 412, " + name + " уже есть");
+        synchronized (this) { sizes.put(name, 0L); }
+        names.taken(name);
+    }
+
+    @Override public OutputStream openOutput(String name) {
+        return new ChunkedUpload(name, 0);
+    }
+
+    /** Продолжение загрузки с offset (см. {@link #resumableLength}). */
+    @Override public ChunkedUpload openOutput(String name, long offset) {
+        return new ChunkedUpload(name, offset);
+    }
+
+    /** Сервер подтверждает каждый кусок, поэтому всё, что он видит, — надёжно записано. */
+    @Override public long resumableLength(String name) throws IOException {
+        return Math.max(0, remoteLength(name));
+    }
+
+    /** Сколько байт файла уже лежит на сервере; -1 — файла нет. */
+    public long remoteLength(String name) throws IOException {
+        Map<String, Long> one = propfind(urlOf(name), auth, "0");
+        return one.isEmpty() ? -1 : one.values().iterator().next();
+    }
+
+    @Override public void rename(String from, String to) throws IOException {
+        call(request(urlOf(from)).header("Destination", urlOf(to)).header("Overwrite", "F")
+                .method("MOVE", null), "MOVE");
+        synchronized (this) {
+            Long size = sizes.remove(from);
+            sizes.put(to, size == null ? 0 : size);
+        }
+        names.freed(from);
+        names.taken(to);
+    }
+
+    @Override public void delete(String name) {
+        try {
+            call(request(urlOf(name)).delete(), "DELETE");
+        } catch (IOException | SecurityException ignore) {
+            // удаление «по возможности»
+        }
+        synchronized (this) { sizes.remove(name); }
+        names.freed(name);
+    }
+
+    /**
+     * Удаляет брошенные файлы с таким окончанием, кроме keep (например, .partial прошлой сессии).
+     * @return те из keep, что нашлись на сервере
+     */
+    public Set<String> deleteBySuffix(String suffix, Set<String> keep) {
+        List<String> victims = new ArrayList<>();
+        Set<String> kept = new HashSet<>();
+        synchronized (this) {
+            for (String n : sizes.keySet()) {
+                if (!n.endsWith(suffix)) continue;
+                if (keep.contains(n)) kept.add(n);
+                else victims.add(n);
+            }
+        }
+        for (String n : victims) delete(n);
+        return kept;
+    }
+
+    // === Загрузка кусками ===
+
+    /** Поток загрузки: буфер CHUNK байт, заполненный буфер отправляется фоновым потоком. */
+    public class ChunkedUpload extends OutputStream {
+        private final String name;
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(2);
+        private final BlockingQueue<Object[]> toSend = new ArrayBlockingQueue<>(1); // {буфер, длина, последний?}
+        private final Thread sender;
+        private volatile Throwable failure; // IOException или отказ сервера (SecurityException на 401/403)
+        private boolean reported;        // failure уже выброшен из write — close() его не повторяет
+        private volatile long committed; // подтверждено сервером
+        private long offset;             // сколько уже отдано на отправку
+        private byte[] buf;
+        private int fill;
+        private boolean closed;
+
+        ChunkedUpload(String name, long offset) {
+            this.name = name;
+            this.offset = offset;
+            this.committed = offset;
+            free.add(new byte[chunk]);
+            free.add(new byte[chunk]);
+            buf = free.poll();
+            sender = new Thread(this::sendLoop, "webdav-put");
+            sender.start();
+        }
+
+        /** Смещение, до которого данные гарантированно на сервере — с него продолжать после сбоя. */
+        public long committed() {
+            return committed;
+        }
+
+        @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                checkFailure();
+                int n = Math.min(len, buf.length - fill);
+                System.arraycopy(b, off, buf, fill, n);
+                fill += n;
+                off += n;
+                len -= n;
+                if (fill == buf.length) hand(false);
+            }
+        }
+
+        @Override public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            // последний кусок отправляем всегда: пустой файл тоже должен появиться на сервере
+            if (fill > 0 || offset == 0) hand(true);
+            else put(new Object[0]);
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                sender.interrupt();
+                throw new InterruptedIOException();
+            }
+            if (!reported) checkFailure();
+        }
+
+        private void hand(boolean last) throws IOException {
+            put(new Object[] { buf, fill, last, offset });
+            offset += fill;
+            fill = 0;
+            if (!last) {
+                try {
+                    buf = free.take();
+                } catch (InterruptedException e) {
+                    sender.interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        private void put(Object[] job) throws IOException {
+            try {
+                toSend.put(job);
+            } catch (InterruptedException e) {
+                sender.interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            Throwable f = failure;
+            if (f == null) return;
+            reported = true;
+            if (f instanceof IOException) throw (IOException) f;
+            if (f instanceof RuntimeException) throw (RuntimeException) f;
+            if (f instanceof Error) throw (Error) f;
+            throw new IOException(f);
+        }
+
+        private void sendLoop() {
+            try {
+                while (true) {
+                    Object[] job = toSend.take();
+                    if (job.length == 0) return; // закрыли на границе куска — всё уже отправлено
+                    byte[] data = (byte[]) job[0];
+                    int len = (Integer) job[1];
+                    boolean last = (Boolean) job[2];
+                    long at = (Long) job[3];
+                    try {
+                        if (failure == null) {
+                            putChunk(name, data, len, at, last);
+                            committed = at + len;
+                        }
+                    } catch (Throwable e) {
+                        // что бы ни случилось, писатель должен об этом узнать, а не ждать буфер вечно
+                        failure = e;
+                    } finally {
+                        free.offer(data);
+                    }
+                    if (last) return;
+                }
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException();
+            }
+        }
+    }
+
+    private void putChunk(String name, byte[] data, int len, long at, boolean last) throws IOException {
+        Request.Builder b = request(urlOf(name)).put(RequestBody.create(data, OCTET, 0, len));
+        if (at > 0) {
+            String total = last ? String.valueOf(at + len) : "*";
+            b.header("Content-Range", "bytes " + at + "-" + (at + len - 1) + "/" + total);
+        }
+        call(b, "PUT");
+        synchronized (this) { sizes.put(name, at + len); }
+    }
+
+    // === HTTP ===
+
+    private Request.Builder request(String url) {
+        return request(url, auth);
+    }
+
+    private static Request.Builder request(String url, @Nullable String auth) {
+        Request.Builder b = new Request.Builder().url(url);
+        if (auth != null) b.header("Authorization", auth);
+        return b;
+    }
+
+    /** Выполняет запрос и закрывает ответ — соединение возвращается в пул. */
+    private static void call(Request.Builder b, String what) throws IOException {
+        try (Response r = HTTP.newCall(b.build()).execute()) {
+            check(r, what);
+        }
+    }
+
+    private static void check(Response r, String what) throws IOException {
+        int code = r.code();
+        if (code >= 200 && code < 300) return;
+        if (code == 401 || code == 403) throw new SecurityException("WebDAV " + what + ": " + code);
+        if (code == 507 || code == 413) throw new NoSpaceException(-1);
+        throw new IOException("WebDAV " + what + ": " + code);
+    }
+
+    private static Map<String, Long> propfind(String url, @Nullable String auth, String depth) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"utf-8\"?><d:propfind xmlns:d=\"DAV:\"><d:prop>"
+                + "<d:resourcetype/><d:getcontentlength/></d:prop></d:propfind>").getBytes(StandardCharsets.UTF_8);
+        Request req = request(url, auth).header("Depth", depth)
+                .method("PROPFIND", RequestBody.create(body, XML)).build();
+        try (Response r = HTTP.newCall(req).execute()) {
+            if (r.code() == 404 && "0".equals(depth)) return new HashMap<>();
+            if (r.code() != 207) {
+                check(r, "PROPFIND");
+                throw new IOException("WebDAV PROPFIND: " + r.code());
+            }
+            ResponseBody rb = r.body();
+            if (rb == null) throw new IOException("WebDAV PROPFIND: пустой ответ");
+            return parseMultistatus(rb.byteStream(), HttpUrl.get(url).encodedPath(), depth);
+        }
+    }
+
+    static Map<String, Long> parseMultistatus(InputStream in, String selfPath, String depth) throws IOException {
+        Map<String, Long> out = new HashMap<>();
+        try {
+            DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+            f.setNamespaceAware(true);
+            Document doc = f.newDocumentBuilder().parse(in);
+            NodeList responses = doc.getElementsByTagNameNS(DAV_NS, "response");
+            for (int i = 0; i < responses.getLength(); i++) {
+                Element r = (Element) responses.item(i);
+                String href = text(r, "href");
+                if (href == null) continue;
+                boolean dir = r.getElementsByTagNameNS(DAV_NS, "collection").getLength() > 0;
+                HttpUrl abs = HttpUrl.parse(href);
+                String path = decode(abs != null ? abs.encodedPath() : href.trim());
+                if (dir || ("1".equals(depth) && samePath(path, selfPath))) continue;
+                String len = text(r, "getcontentlength");
+                out.put(lastSegment(path), len == null || len.trim().isEmpty() ? 0 : Long.parseLong(len.trim()));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("WebDAV: не разобрать ответ PROPFIND", e);
+        }
+        return out;
+    }
+
+    private static @Nullable String text(Element parent, String local) {
+        NodeList l = parent.getElementsByTagNameNS(DAV_NS, local);
+        return l.getLength() == 0 ? null : l.item(0).getTextContent();
+    }
+
+    private static boolean samePath(String a, String b) {
+        return trimSlash(a).equals(trimSlash(decode(b)));
+    }
+
+    private static String trimSlash(String s) {
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static String lastSegment(String path) {
+        String p = trimSlash(path);
+        return p.substring(p.lastIndexOf('/') + 1);
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String urlOf(String name) {
+        try {
+            return folderUrl + URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+/**
+ * Пачка мелких роликов в одном несжатом POSIX tar (ustar): вместо create/rename на каждый ролик —
+ * один файл на сессию, записанный строго последовательно. Обычный `tar -xf` её распаковывает.
+ * Последний член архива — текстовый индекс {@link #INDEX_NAME}: смещение, размер и SHA-256 каждого
+ * ролика, а в самом конце — строка со смещением заголовка индекса, чтобы читатель находил его
+ * за одно чтение с конца файла, не пробегая весь архив.
+ */
+public final class ClipPack {
+
+    public static final String EXTENSION = ".tar";
+    public static final String INDEX_NAME = ".videomover_pack_index";
+
+    static final int BLOCK = 512;
+    /** Предел размера члена ustar: 11 восьмеричных цифр. */
+    public static final long MAX_ENTRY_SIZE = 077777777777L;
+
+    private static final int NAME_LEN = 100;
+    private static final String INDEX_HEADER = "# videomover pack index v1\n";
+    private static final String FOOTER_PREFIX = "VMPACK ";
+    private static final int FOOTER_LEN = FOOTER_PREFIX.length() + 20 + 1; // "VMPACK " + 20 цифр + '\n'
+
+    private ClipPack() {}
+
+    /** Ролик внутри пачки: offset — начало данных (после заголовка tar). */
+    public static final class Entry {
+        public final String name;
+        public final long offset;
+        public final long size;
+        public final String sha256;
+
+        Entry(String name, long offset, long size, String sha256) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    /** Ролик-кандидат в пачку. */
+    public interface Clip {
+        String name();
+        long size();
+        /** мс; 0 — неизвестно */
+        long mtimeMillis();
+        InputStream open() throws IOException;
+    }
+
+    /** Итог {@link #write}: по ролику — Entry (он в пачке) или ошибка чтения источника. */
+    public static final class Result {
+        public final @Nullable String name;   // null — пачка не записана (ошибка или пустая)
+        public final @Nullable String sha256; // хэш всего файла пачки — для SHA256SUMS
+        public final long bytes;
+        public final Entry[] entries;
+        public final Throwable[] errors;
+        public final @Nullable Throwable error; // сбой самой пачки: ролики надо копировать по одному
+
+        Result(@Nullable String name, @Nullable String sha256, long bytes, Entry[] entries,
+               Throwable[] errors, @Nullable Throwable error) {
+            this.name = name;
+            this.sha256 = sha256;
+            this.bytes = bytes;
+            this.entries = entries;
+            this.errors = errors;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Пишет ролики одной пачкой "&lt;base&gt;.tar" в dest: create → последовательная запись → rename,
+     * то есть три обращения к провайдеру на всю пачку. Ролик, который не удалось прочитать,
+     * пропускается, остальные идут дальше; сбой записи в dest бросает всю пачку.
+     */
+    public static Result write(DestStorage dest, String base, List<? extends Clip> clips,
+                               @Nullable RateLimiter limiter) {
+        Entry[] entries = new Entry[clips.size()];
+        Throwable[] errors = new Throwable[clips.size()];
+        String finalName = null;
+        String tempName = null;
+        try {
+            finalName = dest.reserveUniqueName(base, EXTENSION);
+            tempName = finalName + FileCopier.PARTIAL_SUFFIX;
+            dest.create(tempName);
+            String sha;
+            long bytes;
+            boolean any = false;
+            try (OutputStream out = dest.openOutput(tempName)) {
+                Writer w = new Writer(out);
+                for (int i = 0; i < clips.size(); i++) {
+                    Clip c = clips.get(i);
+                    try (InputStream in = c.open()) {
+                        entries[i] = w.add(c.name(), c.size(), c.mtimeMillis(), in, limiter);
+                        any = true;
+                    } catch (IOException e) {
+                        if (w.broken()) throw e;
+                        errors[i] = e instanceof FileNotFoundException
+                                ? new SourceChangedException("Исходник пропал: " + e.getMessage()) : e;
+                    }
+                }
+                sha = w.finish();
+                bytes = w.length();
+            }
+            if (!any) {
+                dest.delete(tempName);
+                dest.release(finalName);
+                return new Result(null, null, 0, entries, errors, null);
+            }
+            dest.rename(tempName, finalName);
+            return new Result(finalName, sha, bytes, entries, errors, null);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            if (tempName != null) dest.delete(tempName);
+            if (finalName != null) dest.release(finalName);
+            return new Result(null, null, 0, new Entry[clips.size()], errors, e);
+        }
+    }
+
+    /**
+     * Последовательная запись пачки в поток (любой DestStorage, в том числе WebDAV).
+     * Не потокобезопасен: ролики добавляются по одному.
+     */
+    public static final class Writer {
+        private final OutputStream out;
+        private final MessageDigest whole = sha256();
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+        private final byte[] buf = new byte[FileCopier.BUFFER_SIZE];
+        private long pos;
+        private boolean broken; // запись в out упала — архив дальше писать нельзя
+
+        public Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Дописывает ролик размера size. Размер уходит в заголовок заранее, поэтому источник,
+         * оказавшийся короче или длиннее или упавший на чтении, в индекс не попадает: член дополняется
+         * нулями (архив остаётся цельным), а наружу летит ошибка чтения. Сбой записи — {@link #broken()}.
+         */
+        public Entry add(String name, long size, long mtimeMillis, InputStream in,
+                         @Nullable RateLimiter limiter) throws IOException, InterruptedException {
+            if (size < 0 || size > MAX_ENTRY_SIZE) throw new IOException("Не помещается в tar: " + size);
+            String member = uniqueName(name);
+            write(header(member, size, mtimeMillis / 1000L));
+            long dataOffset = pos;
+
+            MessageDigest md = sha256();
+            long left = size;
+            boolean shorter = false;
+            while (left > 0) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                int read;
+                try {
+                    read = in.read(buf, 0, (int) Math.min(buf.length, left));
+                } catch (IOException e) {
+                    padZeros(left);
+                    padBlock();
+                    throw e;
+                }
+                if (read == -1) {
+                    shorter = true;
+                    break;
+                }
+                md.update(buf, 0, read);
+                if (limiter != null) limiter.acquire(read);
+                write(buf, 0, read);
+                left -= read;
+            }
+            if (shorter) {
+                padZeros(left);
+                padBlock();
+                throw new SourceChangedException("Исходник короче " + size + " байт: " + name);
+            }
+            padBlock();
+            if (in.read() != -1) throw new SourceChangedException("Исходник длиннее " + size + " байт: " + name);
+
+            Entry e = new Entry(member, dataOffset, size, HashUtil.toHex(md.digest()));
+            entries.add(e);
+            return e;
+        }
+
+        public List<Entry> entries() {
+            return Collections.unmodifiableList(entries);
+        }
+
+        /** Индекс + два нулевых блока конца архива. Возвращает SHA-256 всей пачки. */
+        public String finish() throws IOException {
+            byte[] index = indexBytes(entries, pos);
+            write(header(INDEX_NAME, index.length, System.currentTimeMillis() / 1000L));
+            write(index, 0, index.length);
+            padZeros(2L * BLOCK);
+            try {
+                out.flush();
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+            return HashUtil.toHex(whole.digest());
+        }
+
+        /** Сколько байт уже записано. */
+        public long length() {
+            return pos;
+        }
+
+        public boolean broken() {
+            return broken;
+        }
+
+        /** Имена внутри пачки уникальны и влезают в 100 байт заголовка ustar. */
+        private String uniqueName(String name) {
+            String base = name;
+            String ext = "";
+            int dot = name.lastIndexOf('.');
+            // «расширение» длиннее поля — не расширение; иначе укорачивать было бы нечего
+            if (dot > 0 && dot < name.length() - 1 && utf8(name.substring(dot)).length <= NAME_LEN - 8) {
+                base = name.substring(0, dot);
+                ext = name.substring(dot);
+            }
+            String candidate = name;
+            int n = 1;
+            while (names.contains(candidate) || utf8(candidate).length > NAME_LEN || INDEX_NAME.equals(candidate)) {
+                String suffix = " (" + n + ")" + ext;
+                String head = base;
+                while (!head.isEmpty() && utf8(head + suffix).length > NAME_LEN) {
+                    // по кодовой точке: суррогатная пара (эмодзи в имени) не должна разломиться
+                    head = head.substring(0, head.offsetByCodePoints(head.length(), -1));
+                }
+                candidate = head + suffix;
+                n++;
+            }
+            names.add(candidate);
+            return candidate;
+        }
+
+        private void padBlock() throws IOException {
+            int rem = (int) (pos % BLOCK);
+            if (rem != 0) padZeros(BLOCK - rem);
+        }
+
+        private void padZeros(long n) throws IOException {
+            byte[] zeros = new byte[(int) Math.min(n, buf.length)];
+            while (n > 0) {
+                int len = (int) Math.min(n, zeros.length);
+                write(zeros, 0, len);
+                n -= len;
+            }
+        }
+
+        private void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (broken) throw new IOException("Пачка уже повреждена");
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+            whole.update(b, off, len);
+            pos += len;
+        }
+    }
+
+    /**
+     * Чтение пачки с произвольным доступом: индекс — с конца файла, ролик — по его смещению.
+     * Канал — FileChannel поверх дескриптора SAF или Files.newByteChannel.
+     */
+    public static final class Reader {
+        private final SeekableByteChannel ch;
+        private final Map<String, Entry> byName = new LinkedHashMap<>();
+
+        private Reader(SeekableByteChannel ch) {
+            this.ch = ch;
+        }
+
+        /** @throws IOException не пачка или индекс повреждён */
+        public static Reader open(SeekableByteChannel ch) throws IOException {
+            Reader r = new Reader(ch);
+            long length = ch.size();
+            long tail = length - 2L * BLOCK - FOOTER_LEN;
+            if (tail < BLOCK) throw new IOException("Слишком короткий архив");
+            String footer = new String(r.readAt(tail, FOOTER_LEN), StandardCharsets.US_ASCII);
+            if (!footer.startsWith(FOOTER_PREFIX) || !footer.endsWith("\n")) throw new IOException("Нет индекса пачки");
+            long headerPos;
+            try {
+                headerPos = Long.parseLong(footer.substring(FOOTER_PREFIX.length(), FOOTER_LEN - 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Битый индекс пачки");
+            }
+            if (headerPos < 0 || headerPos + BLOCK > tail) throw new IOException("Битый индекс пачки");
+
+            byte[] header = r.readAt(headerPos, BLOCK);
+            if (!INDEX_NAME.equals(headerName(header))) throw new IOException("Битый индекс пачки");
+            long size = headerSize(header);
+            if (headerPos + BLOCK + size != length - 2L * BLOCK) throw new IOException("Битый индекс пачки");
+            String text = new String(r.readAt(headerPos + BLOCK, (int) size), StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith(FOOTER_PREFIX)) continue;
+                String[] f = line.split("\t", 4);
+                if (f.length != 4) throw new IOException("Битая строка индекса: " + line);
+                Entry e = new Entry(f[3], Long.parseLong(f[0]), Long.parseLong(f[1]), f[2]);
+                if (e.offset < BLOCK || e.offset + e.size > headerPos) throw new IOException("Битая строка индекса: " + line);
+                r.byName.put(e.name, e);
+            }
+            return r;
+        }
+
+        public List<Entry> entries() {
+            return new ArrayList<>(byName.values());
+        }
+
+        public @Nullable Entry find(String name) {
+            return byName.get(name);
+        }
+
+        /** Есть ли в пачке ролик с таким содержимым (строгая проверка дублей). */
+        public @Nullable Entry findBySha256(String sha256) {
+            for (Entry e : byName.values()) {
+                if (e.sha256.equalsIgnoreCase(sha256)) return e;
+            }
+            return null;
+        }
+
+        /** Поток данных одного ролика; читает канал с нужного места, не трогая остальные. */
+        public InputStream open(Entry e) {
+            return new InputStream() {
+                private long at = e.offset;
+                private final long end = e.offset + e.size;
+
+                @Override public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    if (at >= end) return -1;
+                    int n = (int) Math.min(len, end - at);
+                    int read;
+                    synchronized (ch) {
+                        ch.position(at);
+                        read = ch.read(ByteBuffer.wrap(b, off, n));
+                    }
+                    if (read <= 0) throw new EOFException("Архив обрезан");
+                    at += read;
+                    return read;
+                }
+            };
+        }
+
+        /** Извлекает ролик в out, сверяя SHA-256 с индексом. */
+        public void extract(Entry e, OutputStream out) throws IOException {
+            MessageDigest md = sha256();
+            try (InputStream in = open(e)) {
+                FileCopier.pump(in, out, md, null);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Прервано", ie);
+            }
+            String actual = HashUtil.toHex(md.digest());
+            if (!actual.equalsIgnoreCase(e.sha256)) {
+                throw new IOException("SHA-256 не совпал для " + e.name + ": " + actual);
+            }
+        }
+
+        private byte[] readAt(long pos, int len) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(len);
+            synchronized (ch) {
+                ch.position(pos);
+                while (b.hasRemaining()) {
+                    if (ch.read(b) <= 0) throw new EOFException("Архив обрезан");
+                }
+            }
+            return b.array();
+        }
+    }
+
+    /**
+     * Тело индекса: строки "offset\tsize\tsha256\tname", добитые '\n' до целого числа блоков так,
+     * чтобы последней строкой блока была "VMPACK &lt;смещение заголовка индекса&gt;".
+     */
+    static byte[] indexBytes(List<Entry> entries, long headerPos) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        StringBuilder sb = new StringBuilder(INDEX_HEADER);
+        for (Entry e : entries) {
+            sb.append(e.offset).append('\t').append(e.size).append('\t')
+                    .append(e.sha256).append('\t').append(e.name).append('\n');
+        }
+        byte[] lines = utf8(sb.toString());
+        b.write(lines, 0, lines.length);
+        int used = lines.length + FOOTER_LEN;
+        int padded = (used + BLOCK - 1) / BLOCK * BLOCK;
+        for (int i = used; i < padded; i++) b.write('\n');
+        byte[] footer = String.format(Locale.ROOT, "%s%020d\n", FOOTER_PREFIX, headerPos)
+                .getBytes(StandardCharsets.US_ASCII);
+        b.write(footer, 0, footer.length);
+        return b.toByteArray();
+    }
+
+    /** Заголовок ustar обычного файла (typeflag '0', права 0644). */
+    static byte[] header(String name, long size, long mtimeSec) {
+        byte[] h = new byte[BLOCK];
+        byte[] n = utf8(name);
+        System.arraycopy(n, 0, h, 0, Math.min(n.length, NAME_LEN));
+        octal(h, 100, 8, 0644);
+        octal(h, 108, 8, 0);
+        octal(h, 116, 8, 0);
+        octal(h, 124, 12, size);
+        octal(h, 136, 12, Math.max(0, mtimeSec));
+        h[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+        for (int i = 148; i < 156; i++) h[i] = ' ';
+        long sum = 0;
+        for (byte x : h) sum += x & 0xFF;
+        // контрольная сумма: 6 восьмеричных цифр, NUL, пробел
+        String s = String.format(Locale.ROOT, "%06o", sum);
+        for (int i = 0; i < 6; i++) h[148 + i] = (byte) s.charAt(i);
+        h[154] = 0;
+        h[155] = ' ';
+        return h;
+    }
+
+    static String headerName(byte[] h) {
+        int end = 0;
+        while (end < NAME_LEN && h[end] != 0) end++;
+        return new String(h, 0, end, StandardCharsets.UTF_8);
+    }
+
+    static long headerSize(byte[] h) throws IOException {
+        long v = 0;
+        for (int i = 124; i < 136; i++) {
+            byte c = h[i];
+            if (c == 0 || c == ' ') {
+                if (v > 0) break;
+                continue;
+            }
+            if (c < '0' || c > '7') throw new IOException("Битый заголовок tar");
+            v = v * 8 + (c - '0');
+        }
+        return v;
+    }
+
+    /** width-1 восьмеричных цифр с ведущими нулями и завершающий NUL. */
+    private static void octal(byte[] h, int off, int width, long v) {
+        String s = Long.toOctalString(v);
+        int digits = width - 1;
+        for (int i = 0; i < digits; i++) {
+            int from = i - (digits - s.length());
+            h[off + i] = (byte) (from < 0 ? '0' : s.charAt(from));
+        }
+        h[off + digits] = 0;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Плоская папка назначения, адресуемая по именам файлов.
+ * Реализации: SAF (SafDestStorage), WebDAV (WebDavStorage); в тестах — локальная папка и фейки.
+ * Каждый метод — одно обращение к «провайдеру», кроме reserve/release.
+ */
+public interface DestStorage {
+
+    /** Первое свободное имя вида "name.ext" / "name (n).ext"; занято до rename или release. */
+    String reserveUniqueName(String base, String ext) throws IOException;
+
+    void release(String name);
+
+    /** Создаёт пустой файл. */
+    void create(String name) throws IOException;
+
+    OutputStream openOutput(String name) throws IOException;
+
+    /**
+     * Сколько первых байт файла можно считать записанными после сбоя — с этого места
+     * продолжит {@link #openOutput(String, long)}. 0 — продолжать нельзя, только заново.
+     */
+    default long resumableLength(String name) throws IOException {
+        return 0;
+    }
+
+    /** Дописывает файл с offset; всё, что лежало после offset, отбрасывается. */
+    default OutputStream openOutput(String name, long offset) throws IOException {
+        if (offset != 0) throw new IOException("Продолжение записи не поддерживается");
+        return openOutput(name);
+    }
+
+    void rename(String from, String to) throws IOException;
+
+    /** Удаление «по возможности»: ошибки глотаются. */
+    void delete(String name);
+}
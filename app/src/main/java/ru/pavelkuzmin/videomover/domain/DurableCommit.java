@@ -0,0 +1,123 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Политика надёжности записи: когда скопированный файл считается «лежащим на диске»
+ * и его исходник можно удалять.
+ * <ul>
+ *   <li>{@link #MODE_NONE} — сразу после rename (данные могут ещё висеть в page cache);</li>
+ *   <li>{@link #MODE_PER_FILE} — fsync каждого файла перед тем, как отпустить его;</li>
+ *   <li>{@link #MODE_GROUP} — fsync пачкой: до GROUP_FILES файлов или GROUP_BYTES байт за раз.</li>
+ * </ul>
+ * Время, потраченное на fsync, копится в {@link #syncNanos()} для отчёта.
+ */
+public class DurableCommit<T> {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_PER_FILE = "file";
+    public static final String MODE_GROUP = "group";
+
+    static final int GROUP_FILES = 16;
+    static final long GROUP_BYTES = 512L * 1024 * 1024;
+
+    public interface Syncer<T> {
+        void sync(T item) throws IOException;
+    }
+
+    public interface Listener<T> {
+        /** Файл надёжно записан — исходник можно удалять. */
+        void onDurable(T item);
+
+        void onSyncFailed(T item, IOException e);
+    }
+
+    private final Syncer<T> syncer;
+    private final Listener<T> listener;
+    private final RateLimiter.Clock clock;
+    private final boolean sync;
+    private final int maxFiles;
+    private final long maxBytes;
+
+    private final List<T> batch = new ArrayList<>();
+    private long batchBytes;
+    private long syncNanos;
+    private int syncs;
+
+    DurableCommit(Syncer<T> syncer, Listener<T> listener, RateLimiter.Clock clock,
+                  boolean sync, int maxFiles, long maxBytes) {
+        this.syncer = syncer;
+        this.listener = listener;
+        this.clock = clock;
+        this.sync = sync;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+    }
+
+    public static <T> DurableCommit<T> forMode(String mode, Syncer<T> syncer, Listener<T> listener,
+                                               RateLimiter.Clock clock) {
+        if (MODE_PER_FILE.equals(mode)) return new DurableCommit<>(syncer, listener, clock, true, 1, 0);
+        if (MODE_GROUP.equals(mode)) return new DurableCommit<>(syncer, listener, clock, true, GROUP_FILES, GROUP_BYTES);
+        return new DurableCommit<>(syncer, listener, clock, false, 1, 0);
+    }
+
+    /** Файл скопирован и переименован; при заполнении пачки вызывающий поток делает fsync. */
+    public void add(T item, long bytes) {
+        List<T> ready = null;
+        synchronized (this) {
+            batch.add(item);
+            batchBytes += bytes;
+            if (batch.size() >= maxFiles || (maxBytes > 0 && batchBytes >= maxBytes)) ready = takeBatch();
+        }
+        if (ready != null) commit(ready);
+    }
+
+    /** Дожимает неполную пачку (конец сессии). */
+    public void flush() {
+        List<T> ready;
+        synchronized (this) {
+            ready = takeBatch();
+        }
+        commit(ready);
+    }
+
+    public synchronized long syncNanos() {
+        return syncNanos;
+    }
+
+    public synchronized int syncCount() {
+        return syncs;
+    }
+
+    private List<T> takeBatch() {
+        List<T> out = new ArrayList<>(batch);
+        batch.clear();
+        batchBytes = 0;
+        return out;
+    }
+
+    // fsync идёт вне блокировки: остальные воркеры в это время продолжают копировать
+    private void commit(List<T> items) {
+        for (T item : items) {
+            if (!sync) {
+                listener.onDurable(item);
+                continue;
+            }
+            long start = clock.nanoTime();
+            IOException error = null;
+            try {
+                syncer.sync(item);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                syncNanos += clock.nanoTime() - start;
+                syncs++;
+            }
+            if (error == null) listener.onDurable(item);
+            else listener.onSyncFailed(item, error);
+        }
+    }
+}
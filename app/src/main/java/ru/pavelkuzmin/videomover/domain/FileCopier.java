@@ -1,36 +1,183 @@
 package ru.pavelkuzmin.videomover.domain;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
-import android.provider.DocumentsContract;
 
-import androidx.documentfile.provider.DocumentFile;
+import androidx.annotation.Nullable;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.util.function.LongConsumer;
 
 import ru.pavelkuzmin.videomover.util.HashUtil;
 
 public class FileCopier {
 
+    public static final String PARTIAL_SUFFIX = ".partial";
+    static final int BUFFER_SIZE = 1024 * 1024; // 1MB буфер
+
     public static class Result {
         public final boolean ok;
         public final String finalName;
         public final long bytes;
         public final String sha256;
         public final String error;
+        public final boolean noSpace; // в назначении кончилось место — дальше копировать бессмысленно
+        public final int errorKind;   // RetryPolicy.TRANSIENT / PERMANENT / SOURCE_CHANGED; для ok не важен
 
         public Result(boolean ok, String finalName, long bytes, String sha256, String error) {
+            this(ok, finalName, bytes, sha256, error, false);
+        }
+
+        public Result(boolean ok, String finalName, long bytes, String sha256, String error, boolean noSpace) {
+            this(ok, finalName, bytes, sha256, error, noSpace, RetryPolicy.PERMANENT);
+        }
+
+        public Result(boolean ok, String finalName, long bytes, String sha256, String error, boolean noSpace,
+                      int errorKind) {
             this.ok = ok; this.finalName = finalName; this.bytes = bytes; this.sha256 = sha256; this.error = error;
+            this.noSpace = noSpace;
+            this.errorKind = errorKind;
+        }
+
+        /** Временный сбой: ролик стоит попробовать ещё раз в конце сессии. */
+        public boolean retryable() {
+            return !ok && errorKind == RetryPolicy.TRANSIENT;
+        }
+
+        static Result failure(String error, int kind) {
+            return new Result(false, null, 0, null, error, false, kind);
+        }
+    }
+
+    /** Ролик через стадию обработки в назначение, которое отдаёт Uri временного файла. */
+    public static Result copyWithSha256(Context ctx, Uri srcUri, String displayName, long expectedSize,
+                                        ProcessorDest dest, @Nullable RateLimiter limiter,
+                                        MediaProcessor processor, RetryPolicy retry) {
+        return copyWithSha256(ctx, srcUri, displayName, expectedSize, dest, limiter, processor, retry, null);
+    }
+
+    /** То же; temp хранит имя .partial между процессами (см. {@link TempLog}). */
+    public static Result copyWithSha256(Context ctx, Uri srcUri, String displayName, long expectedSize,
+                                        ProcessorDest dest, @Nullable RateLimiter limiter,
+                                        MediaProcessor processor, RetryPolicy retry, @Nullable TempLog temp) {
+        return copyVia(displayName, expectedSize, processor.preservesBytes(), dest, retry, temp,
+                (tempName, offset, md) -> {
+                    Uri uri = dest.uriOf(tempName);
+                    // отчёт о записанном — единственное, откуда можно продолжить (см. SafDestStorage.resumableLength)
+                    dest.setWritten(tempName, -1);
+                    LongConsumer written = len -> dest.setWritten(tempName, len);
+                    return offset == 0
+                            ? processor.process(ctx, srcUri, uri, limiter, md, written)
+                            : processor.resume(ctx, srcUri, uri, offset, limiter, md, written);
+                });
+    }
+
+    /** Побайтовая копия из произвольного потока в DestStorage — без Android (стенд, JVM-тесты). */
+    public static Result copy(StreamSource src, String displayName, long expectedSize,
+                              DestStorage dest, @Nullable RateLimiter limiter) {
+        return copy(src, displayName, expectedSize, dest, limiter, RetryPolicy.NONE);
+    }
+
+    public static Result copy(StreamSource src, String displayName, long expectedSize,
+                              DestStorage dest, @Nullable RateLimiter limiter, RetryPolicy retry) {
+        return copy(src, displayName, expectedSize, dest, limiter, retry, null);
+    }
+
+    public static Result copy(StreamSource src, String displayName, long expectedSize,
+                              DestStorage dest, @Nullable RateLimiter limiter, RetryPolicy retry,
+                              @Nullable TempLog temp) {
+        return copyVia(displayName, expectedSize, true, dest, retry, temp, (tempName, offset, md) -> {
+            try (InputStream in = openSource(src);
+                 OutputStream out = offset == 0 ? dest.openOutput(tempName) : dest.openOutput(tempName, offset)) {
+                hashPrefix(in, offset, md);
+                return offset + pump(in, out, md, limiter);
+            }
+        });
+    }
+
+    /**
+     * Пропускает первые offset байт источника (они уже в назначении), пропуская их через md,
+     * чтобы итоговый SHA-256 покрывал весь ролик.
+     */
+    public static void hashPrefix(InputStream in, long offset, MessageDigest md) throws IOException {
+        byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(offset, 1))];
+        long left = offset;
+        while (left > 0) {
+            int read = in.read(buf, 0, (int) Math.min(buf.length, left));
+            if (read == -1) throw new SourceChangedException("Исходник стал короче уже записанного");
+            md.update(buf, 0, read);
+            left -= read;
         }
     }
 
-    /** Копирует srcUri → destDir, создавая временный "<name>.partial", затем переименовывает. */
-    public static Result copyWithSha256(Context ctx, Uri srcUri, String displayName, long expectedSize, DocumentFile destDir) {
+    private static InputStream openSource(StreamSource src) throws IOException {
         try {
-            // Разрулим коллизию имён для финального файла (finalName)
+            return src.open();
+        } catch (FileNotFoundException e) {
+            throw new SourceChangedException("Исходник пропал: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Перекачивает in → out буфером 1 МБ, обновляя md и соблюдая limiter.
+     * out == null — только хэш (проверка архива). Прерывание потока останавливает перекачку.
+     */
+    public static long pump(InputStream in, @Nullable OutputStream out, MessageDigest md,
+                            @Nullable RateLimiter limiter) throws IOException, InterruptedException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long written = 0;
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            md.update(buf, 0, read);
+            if (limiter != null) limiter.acquire(read);
+            if (out != null) out.write(buf, 0, read);
+            written += read;
+        }
+        if (out != null) out.flush();
+        return written;
+    }
+
+    /**
+     * Где живёт имя временного файла ролика, пока тот копируется (очередь CopyService).
+     * Процесс убили посреди записи — при следующем запуске ролик дописывается в тот же .partial, а не с нуля.
+     */
+    public interface TempLog {
+        /** .partial, оставшийся от прошлого процесса; null — его нет. */
+        @Nullable String find();
+
+        /** Создан .partial (name) или его больше нет — удалён либо переименован (null). */
+        void set(@Nullable String name);
+    }
+
+    /** Откуда читать ролик в copy(). */
+    public interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Запись содержимого во временный файл; возвращает полный размер файла.
+     * offset > 0 — продолжение после сбоя: первые offset байт уже в файле, но md пуст и должен увидеть весь ролик.
+     */
+    interface Body {
+        long write(String tempName, long offset, MessageDigest md) throws Exception;
+    }
+
+    /**
+     * Общее ядро: уникальное имя → "<name>.partial" → body → проверка размера → rename.
+     * resumable — на выходе те же байты, что в источнике: размер сверяется с ожидаемым, а запись после сбоя
+     * продолжается с DestStorage.resumableLength. Каждый шаг повторяется по retry.
+     * temp знает .partial прошлого процесса — тогда он не создаётся, а дописывается.
+     */
+    static Result copyVia(String displayName, long expectedSize, boolean resumable, DestStorage dest,
+                          RetryPolicy retry, @Nullable TempLog temp, Body body) {
+        String finalName = null;
+        try {
+            // Разрулим коллизию имён для финального файла (finalName) — по кэшу детей, без findFile
             String base = displayName;
             String ext = "";
             int dot = base.lastIndexOf('.');
@@ -38,64 +185,99 @@ public class FileCopier {
                 ext = base.substring(dot);
                 base = base.substring(0, dot);
             }
-            String finalName = ensureUniqueName(destDir, base, ext);
-
-            // Создаём временный .partial
-            String tempName = finalName + ".partial";
-            DocumentFile tempFile = destDir.createFile("video/*", tempName);
-            if (tempFile == null) return new Result(false, null, 0, null, "Не удалось создать временный файл");
-            Uri tempUri = tempFile.getUri();
+            finalName = dest.reserveUniqueName(base, ext);
 
-            ContentResolver cr = ctx.getContentResolver();
-            byte[] buf = new byte[1024 * 1024]; // 1MB буфер
-            long written = 0;
+            // .partial прошлого процесса дописываем, иначе создаём новый
+            String tempName = temp == null ? null : temp.find();
+            long offset = 0;
+            if (tempName != null) {
+                if (resumable) offset = resumeOffset(dest, tempName, expectedSize);
+            } else {
+                tempName = finalName + PARTIAL_SUFFIX;
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        dest.create(tempName);
+                        break;
+                    } catch (IOException e) {
+                        if (!retry.shouldRetry(e, attempt)) {
+                            return Result.failure("Не удалось создать временный файл", RetryPolicy.classify(e));
+                        }
+                        retry.backoff(attempt);
+                    }
+                }
+                if (temp != null) temp.set(tempName);
+            }
 
             MessageDigest md = MessageDigest.getInstance("SHA-256");
 
-            try (InputStream in = cr.openInputStream(srcUri);
-                 OutputStream out = cr.openOutputStream(tempUri)) {
-                if (in == null || out == null) return new Result(false, null, 0, null, "Нет доступа к потоку");
-
-                int read;
-                while ((read = in.read(buf)) != -1) {
-                    md.update(buf, 0, read);
-                    out.write(buf, 0, read);
-                    written += read;
+            long written;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    written = body.write(tempName, offset, md);
+                    break;
+                } catch (Exception e) {
+                    if (!retry.shouldRetry(e, attempt)) {
+                        dropTemp(dest, tempName, temp);
+                        throw e;
+                    }
+                    retry.backoff(attempt);
+                    md.reset();
+                    offset = resumable ? resumeOffset(dest, tempName, expectedSize) : 0;
                 }
-                out.flush();
             }
 
-            if (expectedSize > 0 && written != expectedSize) {
-                // Размер не совпал — удаляем temp и выходим
-                DocumentsContract.deleteDocument(cr, tempUri);
-                return new Result(false, null, written, null, "Размер не совпал");
+            if (resumable && expectedSize > 0 && written != expectedSize) {
+                // Размер не совпал — ролик дописывается или подменён; удаляем temp и выходим
+                dropTemp(dest, tempName, temp);
+                return new Result(false, null, written, null, "Размер не совпал", false, RetryPolicy.SOURCE_CHANGED);
             }
 
             String hash = HashUtil.toHex(md.digest());
 
             // Переименовываем .partial → финальное имя
-            Uri renamed = DocumentsContract.renameDocument(cr, tempUri, finalName);
-            if (renamed == null) {
-                DocumentsContract.deleteDocument(cr, tempUri);
-                return new Result(false, null, written, hash, "Не удалось переименовать файл");
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    dest.rename(tempName, finalName);
+                    break;
+                } catch (IOException e) {
+                    if (!retry.shouldRetry(e, attempt)) {
+                        dropTemp(dest, tempName, temp);
+                        return new Result(false, null, written, hash, "Не удалось переименовать файл", false,
+                                RetryPolicy.classify(e));
+                    }
+                    retry.backoff(attempt);
+                }
             }
+            if (temp != null) temp.set(null);
 
             return new Result(true, finalName, written, hash, null);
 
         } catch (SecurityException se) {
             return new Result(false, null, 0, null, "SecurityException: " + se.getMessage());
         } catch (Exception e) {
-            return new Result(false, null, 0, null, e.getClass().getSimpleName() + ": " + e.getMessage());
+            // место кончилось посреди записи (ENOSPC/EDQUOT/EFBIG) — так же, как при предвыделении
+            if (RetryPolicy.isNoSpace(e)) {
+                return new Result(false, null, 0, null, "Недостаточно места: " + e.getMessage(), true);
+            }
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            return Result.failure(e.getClass().getSimpleName() + ": " + e.getMessage(), RetryPolicy.classify(e));
+        } finally {
+            if (finalName != null) dest.release(finalName);
         }
     }
 
-    private static String ensureUniqueName(DocumentFile dir, String base, String ext) {
-        String candidate = base + ext;
-        int n = 1;
-        while (dir.findFile(candidate) != null) {
-            candidate = base + " (" + n + ")" + ext;
-            n++;
+    private static void dropTemp(DestStorage dest, String tempName, @Nullable TempLog temp) {
+        dest.delete(tempName);
+        if (temp != null) temp.set(null);
+    }
+
+    /** С какого места продолжать запись: не дальше ожидаемого размера; не узнали — с нуля. */
+    private static long resumeOffset(DestStorage dest, String tempName, long expectedSize) {
+        try {
+            long len = Math.max(0, dest.resumableLength(tempName));
+            return expectedSize > 0 ? Math.min(len, expectedSize) : len;
+        } catch (IOException e) {
+            return 0;
         }
-        return candidate;
     }
 }
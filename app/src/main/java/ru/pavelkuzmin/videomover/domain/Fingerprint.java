@@ -0,0 +1,78 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+/**
+ * Быстрый «отпечаток» ролика: размер + SHA-256 от первых/средних/последних SAMPLE_BYTES.
+ * Читает ~200 КБ вместо всего файла — достаточно, чтобы решить «уже есть в назначении?».
+ * Формат: "&lt;size&gt;:&lt;hex&gt;".
+ */
+public final class Fingerprint {
+
+    public static final int SAMPLE_BYTES = 64 * 1024;
+
+    private Fingerprint() {}
+
+    /** Отпечаток по файловому дескриптору (MediaStore/SAF отдают его через ParcelFileDescriptor). */
+    public static String of(ContentResolver cr, Uri uri) throws IOException {
+        try (ParcelFileDescriptor pfd = cr.openFileDescriptor(uri, "r")) {
+            if (pfd == null) throw new IOException("Нет доступа к файлу");
+            try (FileInputStream in = new FileInputStream(pfd.getFileDescriptor())) {
+                return of(in.getChannel());
+            }
+        }
+    }
+
+    /** Чтение через FileChannel с явными позициями — без последовательного прохода. */
+    public static String of(FileChannel ch) throws IOException {
+        long size = ch.size();
+        MessageDigest md = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(SAMPLE_BYTES);
+        if (size <= 3L * SAMPLE_BYTES) {
+            readRange(ch, 0, size, buf, md);
+        } else {
+            readRange(ch, 0, SAMPLE_BYTES, buf, md);
+            readRange(ch, size / 2 - SAMPLE_BYTES / 2, SAMPLE_BYTES, buf, md);
+            readRange(ch, size - SAMPLE_BYTES, SAMPLE_BYTES, buf, md);
+        }
+        return size + ":" + HashUtil.toHex(md.digest());
+    }
+
+    /** Размер, зашитый в отпечаток; -1 если строка не похожа на отпечаток. */
+    public static long sizeOf(String fingerprint) {
+        int colon = fingerprint.indexOf(':');
+        if (colon <= 0) return -1;
+        try { return Long.parseLong(fingerprint.substring(0, colon)); } catch (NumberFormatException e) { return -1; }
+    }
+
+    private static void readRange(FileChannel ch, long pos, long len, ByteBuffer buf, MessageDigest md) throws IOException {
+        long end = pos + len;
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int r = ch.read(buf, pos);
+            if (r < 0) break; // файл укоротился — хэшируем то, что есть
+            md.update(buf.array(), 0, r);
+            pos += r;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.util.function.LongConsumer;
+
+/** Стадия обработки ролика по пути источник → временный файл в назначении. */
+public interface MediaProcessor {
+
+    String MODE_PASSTHROUGH = "passthrough";
+    String MODE_REMUX = "remux";
+
+    /**
+     * Пишет (возможно, преобразованный) ролик из src в уже созданный dest.
+     * md получает SHA-256 именно записанных байт. Возвращает их количество.
+     */
+    long process(Context ctx, Uri src, Uri dest, @Nullable RateLimiter limiter, MessageDigest md) throws Exception;
+
+    /**
+     * То же с отчётом для продолжения: если запись оборвалась, written получает, сколько первых байт dest
+     * точно записано. Размер файла для этого не годится — предвыделенный хвост (см. Preallocation) читается нулями.
+     * Стадия, которая не отчитывается, после сбоя пишется заново.
+     */
+    default long process(Context ctx, Uri src, Uri dest, @Nullable RateLimiter limiter, MessageDigest md,
+                         LongConsumer written) throws Exception {
+        return process(ctx, src, dest, limiter, md);
+    }
+
+    /**
+     * Продолжение после сбоя: первые offset байт уже лежат в dest. md пуст и должен получить хэш всего ролика.
+     * Вызывается только для стадий с preservesBytes(); written — как в process.
+     */
+    default long resume(Context ctx, Uri src, Uri dest, long offset, @Nullable RateLimiter limiter,
+                        MessageDigest md, LongConsumer written) throws Exception {
+        throw new UnsupportedOperationException("Продолжение не поддерживается");
+    }
+
+    /** true — на выходе те же байты, что в источнике (можно сверять размер и продолжать после сбоя). */
+    boolean preservesBytes();
+
+    static MediaProcessor forMode(@Nullable String mode) {
+        return forMode(mode, false);
+    }
+
+    /** lowMemory — побайтовая копия (в том числе запасная у ремукса) не оставляет ролик в page cache (см. PageCache). */
+    static MediaProcessor forMode(@Nullable String mode, boolean lowMemory) {
+        if (MODE_REMUX.equals(mode)) return new RemuxProcessor(RemuxEngine.COPY_ENCODER, lowMemory);
+        return lowMemory ? PassthroughProcessor.LOW_MEMORY : PassthroughProcessor.INSTANCE;
+    }
+}
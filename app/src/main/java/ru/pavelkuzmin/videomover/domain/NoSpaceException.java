@@ -0,0 +1,10 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+
+/** В назначении не хватило места (или файл больше лимита ФС, как 4 ГБ у FAT32). */
+public class NoSpaceException extends IOException {
+    public NoSpaceException(long bytes) {
+        super("Не удалось выделить " + bytes + " байт");
+    }
+}
@@ -0,0 +1,117 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.FileDescriptor;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Режим «бережно к памяти»: подсказки ядру через posix_fadvise, чтобы гигабайты роликов, которые
+ * мы больше не прочитаем, не вытесняли из page cache камеру и лаунчер.
+ * Источник читается с POSIX_FADV_SEQUENTIAL (ядро удваивает readahead) и WILLNEED на окно вперёд;
+ * пройденные окна источника и назначения отдаются обратно через POSIX_FADV_DONTNEED.
+ * Подсказки не обязательны: где fadvise не поддерживается (FUSE, каналы), поток работает как обычно.
+ */
+public final class PageCache {
+
+    public static final int WINDOW = 8 * 1024 * 1024;
+
+    private PageCache() {}
+
+    /** Поток чтения источника: последовательный доступ, упреждающее чтение и сброс прочитанного. */
+    public static InputStream readOnce(InputStream in, FileDescriptor fd, long position) {
+        Hints h = new Hints(fd, position);
+        h.advise(0, 0, OsConstants.POSIX_FADV_SEQUENTIAL);
+        h.advise(position, WINDOW, OsConstants.POSIX_FADV_WILLNEED);
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) h.readAdvanced(1);
+                return b;
+            }
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) h.readAdvanced(n);
+                return n;
+            }
+        };
+    }
+
+    /** То же поверх дескриптора провайдера; закрытие потока закрывает и дескриптор. */
+    public static InputStream readOnce(ParcelFileDescriptor pfd) {
+        return readOnce(new ParcelFileDescriptor.AutoCloseInputStream(pfd), pfd.getFileDescriptor(), 0);
+    }
+
+    /**
+     * Поток записи в назначение: пройденные окна выбрасываются из кэша.
+     * DONTNEED не трогает грязные страницы, но запускает их запись на носитель, поэтому окно
+     * сбрасывается дважды: первый раз — старт записи, второй, окном позже, — уже чистые страницы.
+     */
+    public static OutputStream writeOnce(OutputStream out, FileDescriptor fd, long position) {
+        Hints h = new Hints(fd, position);
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                h.written(1);
+            }
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                h.written(len);
+            }
+        };
+    }
+
+    /**
+     * Выбросить из кэша весь файл: источник — сразу после чтения, назначение — после fsync
+     * (до него последние окна ещё грязные и останутся в памяти).
+     */
+    public static void drop(FileDescriptor fd) {
+        new Hints(fd, 0).advise(0, 0, OsConstants.POSIX_FADV_DONTNEED);
+    }
+
+    private static final class Hints {
+        private final FileDescriptor fd;
+        private long pos;        // текущая позиция в файле
+        private long dropped;    // до сюда страницы уже отданы
+        private boolean disabled;
+
+        Hints(FileDescriptor fd, long position) {
+            this.fd = fd;
+            this.pos = position;
+            this.dropped = position;
+        }
+
+        void readAdvanced(int n) {
+            pos += n;
+            if (pos - dropped < WINDOW) return;
+            advise(dropped, pos - dropped, OsConstants.POSIX_FADV_DONTNEED);
+            advise(pos, WINDOW, OsConstants.POSIX_FADV_WILLNEED);
+            dropped = pos;
+        }
+
+        void written(int n) {
+            pos += n;
+            if (pos - dropped < WINDOW) return;
+            // [dropped - WINDOW, dropped) — второй проход по прошлому окну, [dropped, pos) — первый
+            long from = Math.max(0, dropped - WINDOW);
+            advise(from, pos - from, OsConstants.POSIX_FADV_DONTNEED);
+            dropped = pos;
+        }
+
+        void advise(long offset, long len, int advice) {
+            if (disabled) return;
+            try {
+                Os.posix_fadvise(fd, offset, len, advice);
+            } catch (ErrnoException e) {
+                disabled = true; // ESPIPE/EINVAL — не файл или ФС не умеет; больше не пытаемся
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Обработка по умолчанию: побайтовая копия с подсчётом SHA-256.
+ * Если назначение отдаёт файловый дескриптор, место под весь ролик выделяется заранее (см. Preallocation).
+ * В режиме lowMemory прочитанное и записанное не задерживается в page cache (см. PageCache).
+ */
+public class PassthroughProcessor implements MediaProcessor {
+
+    public static final PassthroughProcessor INSTANCE = new PassthroughProcessor(false);
+    public static final PassthroughProcessor LOW_MEMORY = new PassthroughProcessor(true);
+
+    private static final int RESUME_CHECK = 64 * 1024; // столько байт перед offset сверяем при продолжении
+    private static final long RESUME_ALIGN = 1024 * 1024; // шаг поиска границы записанного
+
+    private final boolean lowMemory;
+
+    private PassthroughProcessor(boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+    @Override
+    public long process(Context ctx, Uri src, Uri dest, @Nullable RateLimiter limiter, MessageDigest md) throws Exception {
+        return process(ctx, src, dest, limiter, md, len -> {});
+    }
+
+    @Override
+    public long process(Context ctx, Uri src, Uri dest, @Nullable RateLimiter limiter, MessageDigest md,
+                        LongConsumer writtenSoFar) throws Exception {
+        ContentResolver cr = ctx.getContentResolver();
+        // "rwt"/"wt": если стадия уже что-то писала в dest (откат после ремукса) — начинаем с нуля
+        ParcelFileDescriptor outFd = openFdOrNull(cr, dest, "rwt");
+        if (outFd == null) return copyStreams(cr, src, dest, limiter, md);
+
+        try (ParcelFileDescriptor out = outFd;
+             ParcelFileDescriptor inFd = openSource(cr, src)) {
+            FileDescriptor fd = out.getFileDescriptor();
+            long size = inFd.getStatSize(); // -1 — провайдер не знает размер
+            boolean reserved = Preallocation.reserve(fd, size);
+
+            // потоки поверх чужих дескрипторов их не закрывают — это делает try-with-resources выше
+            InputStream in = source(inFd.getFileDescriptor());
+            long written;
+            try {
+                written = FileCopier.pump(in, target(fd, 0), md, limiter);
+            } catch (Exception e) {
+                onWriteFailure(e, fd, reserved, writtenSoFar);
+                throw e;
+            }
+            if (reserved && written != size) Preallocation.trim(fd, written);
+            if (lowMemory) dropAll(inFd, out);
+            return written;
+        }
+    }
+
+    /**
+     * Дописывает dest с offset: хвост после offset отрезается, префикс источника только хэшируется.
+     * offset берётся из отчёта прошлой попытки (SafDestStorage.resumableLength), а после смерти процесса —
+     * из размера файла; последний блок префикса всё равно сверяется с исходником (см. {@link #matchedPrefix}).
+     */
+    @Override
+    public long resume(Context ctx, Uri src, Uri dest, long offset, @Nullable RateLimiter limiter,
+                       MessageDigest md, LongConsumer writtenSoFar) throws Exception {
+        ContentResolver cr = ctx.getContentResolver();
+        ParcelFileDescriptor outFd = openFdOrNull(cr, dest, "rw");
+        if (outFd == null) return copyStreams(cr, src, dest, limiter, md); // дописывать не умеем — заново
+
+        try (ParcelFileDescriptor out = outFd;
+             ParcelFileDescriptor inFd = openSource(cr, src)) {
+            FileDescriptor fd = out.getFileDescriptor();
+            offset = matchedPrefix(inFd.getFileDescriptor(), fd, offset);
+            InputStream in = source(inFd.getFileDescriptor());
+            FileCopier.hashPrefix(in, offset, md);
+            Preallocation.trim(fd, offset);
+            Preallocation.seek(fd, offset);
+            long written;
+            try {
+                written = offset + FileCopier.pump(in, target(fd, offset), md, limiter);
+            } catch (Exception e) {
+                onWriteFailure(e, fd, false, writtenSoFar);
+                throw e;
+            }
+            if (lowMemory) dropAll(inFd, out);
+            return written;
+        }
+    }
+
+    @Override
+    public boolean preservesBytes() {
+        return true;
+    }
+
+    /**
+     * Запись оборвалась: отчитываемся, сколько байт реально в файле (позиция записи), и отрезаем
+     * предвыделенный хвост. Сбой здесь не должен заслонить исходную ошибку — он уходит в suppressed;
+     * позицию не узнали — отчитываемся нулём, и файл перепишется целиком.
+     */
+    private static void onWriteFailure(Exception e, FileDescriptor fd, boolean reserved, LongConsumer writtenSoFar) {
+        long done = 0;
+        try {
+            done = Preallocation.position(fd);
+            if (reserved) Preallocation.trim(fd, done);
+        } catch (IOException t) {
+            e.addSuppressed(t);
+        }
+        writtenSoFar.accept(done);
+    }
+
+    private InputStream source(FileDescriptor fd) {
+        InputStream in = new FileInputStream(fd);
+        return lowMemory ? PageCache.readOnce(in, fd, 0) : in;
+    }
+
+    private OutputStream target(FileDescriptor fd, long position) {
+        OutputStream out = new FileOutputStream(fd);
+        return lowMemory ? PageCache.writeOnce(out, fd, position) : out;
+    }
+
+    /** Хвосты последних окон: источник больше не нужен, у назначения уйдут уже записанные страницы. */
+    private static void dropAll(ParcelFileDescriptor src, ParcelFileDescriptor dest) {
+        PageCache.drop(src.getFileDescriptor());
+        PageCache.drop(dest.getFileDescriptor());
+    }
+
+    /** Провайдеры без дескрипторов (облачные и т. п.) пишутся потоком. */
+    private static long copyStreams(ContentResolver cr, Uri src, Uri dest, @Nullable RateLimiter limiter,
+                                    MessageDigest md) throws Exception {
+        try (InputStream in = openSourceStream(cr, src);
+             OutputStream out = cr.openOutputStream(dest, "wt")) {
+            if (out == null) throw new IOException("Нет доступа к потоку");
+            return FileCopier.pump(in, out, md, limiter);
+        }
+    }
+
+    /**
+     * Докуда dest совпадает с исходником, не дальше offset. Сверяется блок перед offset; не совпал —
+     * граница ищется двоичным поиском по мегабайтам: записанное совпадает, а предвыделенный хвост
+     * (после смерти процесса отчёта о записанном нет, размер файла сразу полный) читается нулями.
+     */
+    private static long matchedPrefix(FileDescriptor src, FileDescriptor dest, long offset) throws IOException {
+        if (blockMatches(src, dest, offset)) return offset;
+        long lo = 0;                        // 0 байт совпадают всегда
+        long hi = (offset - 1) / RESUME_ALIGN; // в мегабайтах, строго до offset
+        while (lo < hi) {
+            long mid = (lo + hi + 1) / 2;
+            if (blockMatches(src, dest, mid * RESUME_ALIGN)) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo * RESUME_ALIGN;
+    }
+
+    /** Последние RESUME_CHECK байт перед pos одинаковы в обоих файлах. */
+    private static boolean blockMatches(FileDescriptor src, FileDescriptor dest, long pos) throws IOException {
+        if (pos <= 0) return true;
+        int check = (int) Math.min(pos, RESUME_CHECK);
+        byte[] expected = readAt(src, pos - check, check);
+        return expected.length == check && Arrays.equals(expected, readAt(dest, pos - check, check));
+    }
+
+    /** pread без сдвига позиции; короче len — значит, файл короче. */
+    private static byte[] readAt(FileDescriptor fd, long pos, int len) throws IOException {
+        byte[] buf = new byte[len];
+        int off = 0;
+        try {
+            while (off < len) {
+                int read = Os.pread(fd, buf, off, len - off, pos + off);
+                if (read <= 0) return Arrays.copyOf(buf, off);
+                off += read;
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return buf;
+    }
+
+    /**
+     * Дескриптор исходника. FileNotFound тут значит, что ролик удалили или отозвали доступ —
+     * повторять бессмысленно, поэтому это SourceChangedException, а не временный сбой.
+     */
+    static ParcelFileDescriptor openSource(ContentResolver cr, Uri src) throws IOException {
+        ParcelFileDescriptor fd;
+        try {
+            fd = cr.openFileDescriptor(src, "r");
+        } catch (FileNotFoundException e) {
+            throw new SourceChangedException("Исходник пропал: " + e.getMessage());
+        }
+        if (fd == null) throw new IOException("Нет доступа к потоку"); // провайдер упал — это временно
+        return fd;
+    }
+
+    private static InputStream openSourceStream(ContentResolver cr, Uri src) throws IOException {
+        InputStream in;
+        try {
+            in = cr.openInputStream(src);
+        } catch (FileNotFoundException e) {
+            throw new SourceChangedException("Исходник пропал: " + e.getMessage());
+        }
+        if (in == null) throw new IOException("Нет доступа к потоку");
+        return in;
+    }
+
+    private static @Nullable ParcelFileDescriptor openFdOrNull(ContentResolver cr, Uri dest, String mode) {
+        try {
+            return cr.openFileDescriptor(dest, mode);
+        } catch (Exception e) {
+            return null; // FileNotFound / UnsupportedOperation / IllegalArgument (нет такого режима)
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Назначение, в которое стадия обработки (MediaProcessor) пишет сама — по Uri временного файла.
+ * Реализация: SafDestStorage; в JVM-тестах — фейк поверх SimulatedDest.
+ */
+public interface ProcessorDest extends DestStorage {
+
+    Uri uriOf(String name) throws FileNotFoundException;
+
+    /**
+     * Отчёт стадии о сбое: первые length байт файла записаны; length &lt; 0 — отчёта нет.
+     * resumableLength не должен заходить дальше отчёта.
+     */
+    void setWritten(String name, long length);
+}
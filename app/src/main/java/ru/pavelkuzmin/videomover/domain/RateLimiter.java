@@ -0,0 +1,78 @@
+package ru.pavelkuzmin.videomover.domain;
+
+/**
+ * Token bucket по байтам. Потокобезопасен: несколько копирующих потоков делят один лимит.
+ * Время берётся из {@link Clock}, поэтому в тестах подставляются фейковые часы.
+ */
+public class RateLimiter {
+
+    public interface Clock {
+        long nanoTime();
+        void sleepNanos(long nanos) throws InterruptedException;
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override public long nanoTime() { return System.nanoTime(); }
+        @Override public void sleepNanos(long nanos) throws InterruptedException {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        }
+    };
+
+    private static final long NANOS_PER_SEC = 1_000_000_000L;
+    private static final long MIN_BURST = 256 * 1024;
+
+    private final Clock clock;
+    private long bytesPerSec; // 0 — без ограничения
+    private double capacity;
+    private double tokens;
+    private long last;
+
+    public RateLimiter(Clock clock, long bytesPerSec) {
+        this.clock = clock;
+        this.last = clock.nanoTime();
+        applyRate(bytesPerSec);
+        this.tokens = capacity;
+    }
+
+    public RateLimiter(long bytesPerSec) {
+        this(SYSTEM_CLOCK, bytesPerSec);
+    }
+
+    /** Меняет лимит на лету (например, при нагреве); накопленный запас обрезается до нового объёма. */
+    public synchronized void setRate(long bytesPerSec) {
+        refill();
+        applyRate(bytesPerSec);
+        if (tokens > capacity) tokens = capacity;
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSec;
+    }
+
+    /** Блокирует поток, пока не «накопится» право записать bytes байт. */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSec <= 0) return;
+            refill();
+            tokens -= bytes;
+            // долг раздаётся по очереди: каждый следующий поток ждёт дольше предыдущего
+            waitNanos = tokens < 0 ? (long) Math.ceil(-tokens * NANOS_PER_SEC / bytesPerSec) : 0;
+        }
+        if (waitNanos > 0) clock.sleepNanos(waitNanos);
+    }
+
+    private void applyRate(long bytesPerSec) {
+        this.bytesPerSec = Math.max(0, bytesPerSec);
+        // запас на ~250 мс, но не меньше MIN_BURST, чтобы мелкие записи не дёргали sleep
+        this.capacity = Math.max(MIN_BURST, this.bytesPerSec / 4.0);
+    }
+
+    private void refill() {
+        long now = clock.nanoTime();
+        long dt = now - last;
+        last = now;
+        if (bytesPerSec <= 0 || dt <= 0) return;
+        tokens = Math.min(capacity, tokens + (double) dt * bytesPerSec / NANOS_PER_SEC);
+    }
+}
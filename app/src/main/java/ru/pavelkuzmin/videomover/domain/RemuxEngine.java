@@ -0,0 +1,148 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ремукс «сэмпл за сэмплом» без временных файлов: читаем из SampleSource, при необходимости
+ * пропускаем через TrackEncoder и пишем в SampleSink. Оставляем только видео и аудио дорожки.
+ * Без зависимостей от android.media — на устройстве источник/приёмник это MediaExtractor/MediaMuxer,
+ * в тестах — обычные заглушки.
+ */
+public final class RemuxEngine {
+
+    /** Флаг ключевого кадра (совпадает с MediaCodec.BUFFER_FLAG_KEY_FRAME). */
+    public static final int FLAG_KEY_FRAME = 1;
+
+    public interface SampleSource {
+        int trackCount();
+        String trackMime(int track);
+        /** Непрозрачный формат дорожки (MediaFormat на устройстве). */
+        Object trackFormat(int track);
+        /** Максимальный размер сэмпла по всем дорожкам — под него выделяется буфер. */
+        int maxSampleSize();
+        void selectTrack(int track);
+        /** Читает текущий сэмпл в buf с позиции 0; -1 — дорожки кончились. */
+        int readSample(ByteBuffer buf);
+        int sampleTrack();
+        long sampleTimeUs();
+        int sampleFlags();
+        boolean advance();
+    }
+
+    public interface SampleSink {
+        int addTrack(Object format);
+        void start();
+        void writeSample(int track, ByteBuffer buf, int size, long timeUs, int flags);
+        void stop();
+    }
+
+    /** Подключаемый кодировщик дорожки. Для ремукса без потерь — COPY_ENCODER. */
+    public interface TrackEncoder {
+        /** Формат, который уйдёт в приёмник вместо исходного. */
+        Object outputFormat(String mime, Object inputFormat);
+        /** Обрабатывает сэмпл и отдаёт результат(ы) в out. */
+        void encode(int track, ByteBuffer in, int size, long timeUs, int flags, Emitter out);
+        /** Дописывает то, что осталось в кодировщике к концу дорожек. */
+        void finish(Emitter out);
+    }
+
+    public interface Emitter {
+        void emit(int track, ByteBuffer buf, int size, long timeUs, int flags);
+    }
+
+    public static final TrackEncoder COPY_ENCODER = new TrackEncoder() {
+        @Override public Object outputFormat(String mime, Object inputFormat) { return inputFormat; }
+        @Override public void encode(int track, ByteBuffer in, int size, long timeUs, int flags, Emitter out) {
+            out.emit(track, in, size, timeUs, flags);
+        }
+        @Override public void finish(Emitter out) {}
+    };
+
+    /** Начало строки ISO 6709 вида "+37.5090-122.2706/" (дальше может идти высота). */
+    private static final Pattern ISO_6709 = Pattern.compile("^([+-]\\d+(?:\\.\\d+)?)([+-]\\d+(?:\\.\\d+)?)");
+
+    private RemuxEngine() {}
+
+    public static boolean isKeptMime(@Nullable String mime) {
+        return mime != null && (mime.startsWith("video/") || mime.startsWith("audio/"));
+    }
+
+    /** Поворот для MediaMuxer.setOrientationHint: только 0/90/180/270, прочее — 0. */
+    public static int normalizeRotation(int degrees) {
+        int d = ((degrees % 360) + 360) % 360;
+        return d % 90 == 0 ? d : 0;
+    }
+
+    /**
+     * Координаты из METADATA_KEY_LOCATION (ISO 6709) → {широта, долгота} для MediaMuxer.setLocation.
+     * null — строки нет, она не разбирается или координаты вне допустимых пределов.
+     */
+    @Nullable
+    public static float[] parseIso6709(@Nullable String s) {
+        if (s == null) return null;
+        Matcher m = ISO_6709.matcher(s.trim());
+        if (!m.find()) return null;
+        try {
+            float lat = Float.parseFloat(m.group(1));
+            float lon = Float.parseFloat(m.group(2));
+            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) return null;
+            return new float[] { lat, lon };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Прогоняет все сэмплы; возвращает суммарный объём записанных сэмплов. */
+    public static long run(SampleSource src, SampleSink sink, TrackEncoder encoder,
+                           @Nullable RateLimiter limiter) throws InterruptedException {
+        int n = src.trackCount();
+        int[] map = new int[n];
+        Arrays.fill(map, -1);
+        for (int t = 0; t < n; t++) {
+            String mime = src.trackMime(t);
+            if (!isKeptMime(mime)) continue;
+            src.selectTrack(t);
+            map[t] = sink.addTrack(encoder.outputFormat(mime, src.trackFormat(t)));
+        }
+        boolean any = false;
+        for (int m : map) any |= m >= 0;
+        if (!any) throw new IllegalStateException("Нет видео/аудио дорожек");
+
+        sink.start();
+        long[] written = new long[1];
+        InterruptedException[] interrupted = new InterruptedException[1];
+        Emitter out = (track, buf, size, timeUs, flags) -> {
+            if (interrupted[0] != null) return;
+            try {
+                if (limiter != null) limiter.acquire(size);
+            } catch (InterruptedException e) {
+                interrupted[0] = e;
+                return;
+            }
+            sink.writeSample(track, buf, size, timeUs, flags);
+            written[0] += size;
+        };
+
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(64 * 1024, src.maxSampleSize()));
+        while (true) {
+            buf.clear();
+            int size = src.readSample(buf);
+            if (size < 0) break;
+            int track = src.sampleTrack();
+            if (track >= 0 && track < n && map[track] >= 0) {
+                encoder.encode(map[track], buf, size, src.sampleTimeUs(), src.sampleFlags(), out);
+                if (interrupted[0] != null) throw interrupted[0];
+            }
+            if (!src.advance()) break;
+        }
+        encoder.finish(out);
+        if (interrupted[0] != null) throw interrupted[0];
+        sink.stop();
+        return written[0];
+    }
+}
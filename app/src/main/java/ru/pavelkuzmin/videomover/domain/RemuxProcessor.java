@@ -0,0 +1,167 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * «Архивный» режим: MediaExtractor → TrackEncoder → MediaMuxer прямо в файловый дескриптор назначения.
+ * Лишние дорожки (метаданные, служебные потоки камер) отбрасываются, поворот и геометка переносятся
+ * в заголовок нового файла. Если контейнер не поддерживается муксером (сбой до start()), ролик копируется
+ * как есть; сбой после start() — ошибка записи, её повторяет FileCopier.
+ */
+public class RemuxProcessor implements MediaProcessor {
+
+    private final RemuxEngine.TrackEncoder encoder;
+    private final boolean lowMemory;
+
+    public RemuxProcessor(RemuxEngine.TrackEncoder encoder) {
+        this(encoder, false);
+    }
+
+    /** lowMemory — и запасной путь «как есть» не оставляет ролик в page cache. */
+    public RemuxProcessor(RemuxEngine.TrackEncoder encoder, boolean lowMemory) {
+        this.encoder = encoder;
+        this.lowMemory = lowMemory;
+    }
+
+    @Override
+    public long process(Context ctx, Uri src, Uri dest, @Nullable RateLimiter limiter, MessageDigest md) throws Exception {
+        ContentResolver cr = ctx.getContentResolver();
+        MediaExtractor extractor = new MediaExtractor();
+        MuxerSink sink = null;
+        try (ParcelFileDescriptor in = PassthroughProcessor.openSource(cr, src);
+             ParcelFileDescriptor out = cr.openFileDescriptor(dest, "rwt")) {
+            if (out == null) throw new IOException("Нет доступа к файлу");
+            extractor.setDataSource(in.getFileDescriptor());
+            MediaMuxer muxer = new MediaMuxer(out.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            sink = new MuxerSink(muxer);
+            try {
+                copyMetadata(extractor, in, muxer);
+                RemuxEngine.run(new ExtractorSource(extractor), sink, encoder, limiter);
+            } finally {
+                muxer.release();
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // после start() это уже сбой записи, а не «формат не тот»: молча подменять ремукс копией нельзя
+            if (sink != null && sink.started) throw new IOException("Ремукс оборвался: " + e.getMessage(), e);
+            // кодек/контейнер муксеру не по зубам — переносим оригинал
+            md.reset();
+            PassthroughProcessor fallback = lowMemory ? PassthroughProcessor.LOW_MEMORY : PassthroughProcessor.INSTANCE;
+            return fallback.process(ctx, src, dest, limiter, md);
+        } finally {
+            extractor.release();
+        }
+        // MPEG-4 муксер дописывает moov в конце с перемоткой, поэтому хэш считаем по готовому файлу
+        return hashWritten(cr, dest, md);
+    }
+
+    @Override
+    public boolean preservesBytes() {
+        return false;
+    }
+
+    /** Поворот и координаты живут в заголовке, а не в дорожках — муксеру их надо передать до start(). */
+    private static void copyMetadata(MediaExtractor extractor, ParcelFileDescriptor in, MediaMuxer muxer) {
+        int rotation = -1;
+        for (int t = 0; t < extractor.getTrackCount(); t++) {
+            MediaFormat f = extractor.getTrackFormat(t);
+            String mime = f.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/") && f.containsKey(MediaFormat.KEY_ROTATION)) {
+                rotation = f.getInteger(MediaFormat.KEY_ROTATION);
+                break;
+            }
+        }
+        String location = null;
+        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+        try {
+            mmr.setDataSource(in.getFileDescriptor());
+            if (rotation < 0) {
+                String r = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+                if (r != null) rotation = Integer.parseInt(r.trim());
+            }
+            location = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_LOCATION);
+        } catch (RuntimeException ignored) {
+            // метаданные не читаются — ролик всё равно переносим
+        } finally {
+            try { mmr.release(); } catch (Exception ignored) {}
+        }
+        int hint = RemuxEngine.normalizeRotation(Math.max(0, rotation));
+        if (hint != 0) muxer.setOrientationHint(hint);
+        float[] latLon = RemuxEngine.parseIso6709(location);
+        if (latLon != null) muxer.setLocation(latLon[0], latLon[1]);
+    }
+
+    private static long hashWritten(ContentResolver cr, Uri dest, MessageDigest md) throws IOException {
+        byte[] buf = new byte[1024 * 1024];
+        long total = 0;
+        try (InputStream in = cr.openInputStream(dest)) {
+            if (in == null) throw new IOException("Нет доступа к потоку");
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                md.update(buf, 0, read);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    private static class ExtractorSource implements RemuxEngine.SampleSource {
+        private final MediaExtractor ex;
+        ExtractorSource(MediaExtractor ex) { this.ex = ex; }
+
+        @Override public int trackCount() { return ex.getTrackCount(); }
+        @Override public String trackMime(int track) { return ex.getTrackFormat(track).getString(MediaFormat.KEY_MIME); }
+        @Override public Object trackFormat(int track) { return ex.getTrackFormat(track); }
+        @Override public int maxSampleSize() {
+            int max = 0;
+            for (int t = 0; t < ex.getTrackCount(); t++) {
+                MediaFormat f = ex.getTrackFormat(t);
+                if (f.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    max = Math.max(max, f.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                }
+            }
+            return max > 0 ? max : 8 * 1024 * 1024; // 4K-кадры бывают крупными
+        }
+        @Override public void selectTrack(int track) { ex.selectTrack(track); }
+        @Override public int readSample(ByteBuffer buf) { return ex.readSampleData(buf, 0); }
+        @Override public int sampleTrack() { return ex.getSampleTrackIndex(); }
+        @Override public long sampleTimeUs() { return ex.getSampleTime(); }
+        @Override public int sampleFlags() {
+            return (ex.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0 ? RemuxEngine.FLAG_KEY_FRAME : 0;
+        }
+        @Override public boolean advance() { return ex.advance(); }
+    }
+
+    private static class MuxerSink implements RemuxEngine.SampleSink {
+        private final MediaMuxer muxer;
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean started; // муксер уже пишет в dest
+        MuxerSink(MediaMuxer muxer) { this.muxer = muxer; }
+
+        @Override public int addTrack(Object format) { return muxer.addTrack((MediaFormat) format); }
+        @Override public void start() {
+            muxer.start(); // не стартовал — ещё настройка, запасной путь уместен
+            started = true;
+        }
+        @Override public void writeSample(int track, ByteBuffer buf, int size, long timeUs, int flags) {
+            int codecFlags = (flags & RemuxEngine.FLAG_KEY_FRAME) != 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            info.set(0, size, timeUs, codecFlags);
+            muxer.writeSampleData(track, buf, info);
+        }
+        @Override public void stop() { muxer.stop(); }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Повторы при сбоях копирования: OTG-кабель «моргнул», провайдер на миг отвалился, NAS не ответил.
+ * Ошибки делятся на три класса, повторяются только {@link #TRANSIENT}: сначала тут же, с паузой
+ * (запись продолжается с подтверждённого смещения, см. DestStorage.resumableLength),
+ * затем — ещё sessionRounds раз в конце сессии, когда остальные ролики уже скопированы.
+ */
+public final class RetryPolicy {
+
+    public static final int TRANSIENT = 0;      // сбой ввода-вывода — повторить с паузой
+    public static final int PERMANENT = 1;      // нет прав, нет места, отмена — повтор не поможет
+    public static final int SOURCE_CHANGED = 2; // исходник пропал или изменился — копия была бы не та
+
+    /** Без повторов: одна попытка, как было раньше. */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, RateLimiter.SYSTEM_CLOCK);
+
+    public final int maxAttempts;   // попыток на один шаг (create / запись / rename)
+    public final int sessionRounds; // дополнительных проходов по «временно» упавшим роликам
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final RateLimiter.Clock clock;
+
+    public RetryPolicy(int maxAttempts, int sessionRounds, long baseDelayNanos, long maxDelayNanos,
+                       RateLimiter.Clock clock) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.sessionRounds = Math.max(0, sessionRounds);
+        this.baseDelayNanos = baseDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.clock = clock;
+    }
+
+    /** Для USB/SAF и сети: 4 попытки с паузами 0,5 → 1 → 2 с, потом два прохода в конце сессии. */
+    public static RetryPolicy standard(RateLimiter.Clock clock) {
+        return new RetryPolicy(4, 2, 500_000_000L, 8_000_000_000L, clock);
+    }
+
+    /**
+     * Причины просматриваются по цепочке: IOException от записи в дескриптор на Android оборачивает
+     * ErrnoException, и errno решает — нет места, нет прав или ФС только для чтения не лечатся паузой.
+     */
+    public static int classify(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SourceChangedException) return SOURCE_CHANGED;
+            if (t instanceof NoSpaceException || t instanceof SecurityException
+                    || t instanceof InterruptedException) return PERMANENT;
+            if (t instanceof ErrnoException && isPermanentErrno(((ErrnoException) t).errno)) return PERMANENT;
+            // таймаут сокета — тоже InterruptedIOException, но это как раз временный сбой
+            if (t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException)) return PERMANENT;
+        }
+        return e instanceof IOException ? TRANSIENT : PERMANENT;
+    }
+
+    /** В назначении кончилось место (или файл упёрся в лимит ФС) — копировать дальше бессмысленно. */
+    public static boolean isNoSpace(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof NoSpaceException) return true;
+            if (t instanceof ErrnoException) {
+                int errno = ((ErrnoException) t).errno;
+                if (errno == OsConstants.ENOSPC || errno == OsConstants.EDQUOT || errno == OsConstants.EFBIG) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPermanentErrno(int errno) {
+        return errno == OsConstants.ENOSPC || errno == OsConstants.EDQUOT || errno == OsConstants.EFBIG
+                || errno == OsConstants.EACCES || errno == OsConstants.EROFS;
+    }
+
+    /** Стоит ли повторять шаг после неудачной попытки номер attempt (с 1). */
+    public boolean shouldRetry(Throwable e, int attempt) {
+        return attempt < maxAttempts && classify(e) == TRANSIENT;
+    }
+
+    /** Пауза после неудачной попытки номер attempt: экспоненциально, не больше maxDelay. */
+    public long delayNanos(int attempt) {
+        long d = baseDelayNanos << Math.min(attempt - 1, 30);
+        return d < 0 ? maxDelayNanos : Math.min(d, maxDelayNanos);
+    }
+
+    public void backoff(int attempt) throws InterruptedException {
+        long d = delayNanos(attempt);
+        if (d > 0) clock.sleepNanos(d);
+    }
+
+    /** Пауза перед проходом в конце сессии — самая длинная: связи нужно время, чтобы восстановиться. */
+    public void backoffRound() throws InterruptedException {
+        backoff(maxAttempts);
+    }
+}
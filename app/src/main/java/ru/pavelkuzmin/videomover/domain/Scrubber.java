@@ -0,0 +1,117 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+/**
+ * Инкрементальная проверка архива: файлы перебираются по имени, начиная после курсора,
+ * перехэшируются тем же движком, что и при копировании (FileCopier.pump), и сверяются с SHA256SUMS.
+ * Проход ограничен бюджетом времени; курсор сохраняет вызывающий, так что десятки тысяч файлов
+ * проверяются за много коротких сеансов.
+ */
+public final class Scrubber {
+
+    /** Проверяемая папка. */
+    public interface Archive {
+        List<String> names();
+
+        /** Записанный хэш или null — файл не из манифеста, проверять не с чем. */
+        @Nullable String expectedSha256(String name);
+
+        InputStream open(String name) throws IOException;
+    }
+
+    public interface Report {
+        void corrupt(String name, String expected, String actual);
+
+        void unreadable(String name, String error);
+
+        /** Файл проверен — курсор можно сохранить, чтобы после убийства процесса не начинать заново. */
+        void checkpoint(String cursor);
+    }
+
+    public interface StopSignal {
+        boolean stopRequested();
+    }
+
+    public static class Pass {
+        /** Последний полностью проверенный файл; "" — дошли до конца, следующий проход с начала. */
+        public final String cursor;
+        public final int checked;
+        public final long bytes;
+        public final int corrupt;
+        public final int unreadable;
+        public final boolean completed;
+        public final long elapsedNanos;
+
+        Pass(String cursor, int checked, long bytes, int corrupt, int unreadable, boolean completed, long elapsedNanos) {
+            this.cursor = cursor; this.checked = checked; this.bytes = bytes; this.corrupt = corrupt;
+            this.unreadable = unreadable; this.completed = completed; this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private Scrubber() {}
+
+    /**
+     * @param cursor       имя, после которого продолжать ("" — с начала)
+     * @param budgetNanos  сколько времени можно потратить; файл, начатый до конца бюджета, дочитывается
+     */
+    public static Pass run(Archive archive, String cursor, @Nullable RateLimiter limiter, RateLimiter.Clock clock,
+                           long budgetNanos, StopSignal stop, Report report) {
+        List<String> names = new ArrayList<>(archive.names());
+        Collections.sort(names);
+        long start = clock.nanoTime();
+        int checked = 0, corrupt = 0, unreadable = 0;
+        long bytes = 0;
+        String last = cursor;
+
+        for (String name : names) {
+            if (!cursor.isEmpty() && name.compareTo(cursor) <= 0) continue;
+            String expected = archive.expectedSha256(name);
+            if (expected == null) {
+                last = name;
+                continue;
+            }
+            if (stop.stopRequested() || clock.nanoTime() - start >= budgetNanos) {
+                return new Pass(last, checked, bytes, corrupt, unreadable, false, clock.nanoTime() - start);
+            }
+            try (InputStream in = archive.open(name)) {
+                MessageDigest md = sha256();
+                bytes += FileCopier.pump(in, null, md, limiter);
+                String actual = HashUtil.toHex(md.digest());
+                if (!actual.equalsIgnoreCase(expected)) {
+                    corrupt++;
+                    report.corrupt(name, expected, actual);
+                }
+            } catch (InterruptedException e) {
+                // остановили посреди файла — он будет проверен в следующий раз
+                Thread.currentThread().interrupt();
+                return new Pass(last, checked, bytes, corrupt, unreadable, false, clock.nanoTime() - start);
+            } catch (IOException | SecurityException e) {
+                unreadable++;
+                report.unreadable(name, e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+            checked++;
+            last = name;
+            report.checkpoint(last);
+        }
+        return new Pass("", checked, bytes, corrupt, unreadable, true, clock.nanoTime() - start);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Общий цикл сессии переноса: пул воркеров разбирает список, ролики с временной ошибкой
+ * уходят в конец сессии и повторяются ещё retry.sessionRounds раз с паузой retry.backoffRound().
+ * Что делать с одним роликом, решает Step — CopyService (очередь, индекс, fsync) или TransferSession (стенд).
+ */
+public final class SessionRunner {
+
+    /** Ролик обработан (успешно или нет) — больше к нему не возвращаемся. */
+    public static final int DONE = 0;
+    /** Временный сбой — повторить в конце сессии. */
+    public static final int RETRY = 1;
+    /** Продолжать бессмысленно (например, кончилось место): воркеры доделывают текущее и выходят. */
+    public static final int STOP = 2;
+
+    public interface Step<T> {
+        /** @param lastRound RETRY в этом проходе уже не поможет — ролик надо довести до конца */
+        int run(T item, boolean lastRound);
+
+        /** Перед повторным проходом по count роликам. */
+        default void beforeRound(int round, int count) {}
+    }
+
+    private SessionRunner() {}
+
+    /**
+     * @param parallelism сколько воркеров из workers сейчас можно занять (автоподстройка под нагрев);
+     *                    null — все; «лишние» ждут
+     * @return true — сессию остановил STOP
+     */
+    public static <T> boolean run(List<T> items, int workers, @Nullable IntSupplier parallelism,
+                                  RetryPolicy retry, Step<T> step) {
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        List<T> pass = items;
+        for (int round = 0; ; round++) {
+            List<T> again = runPass(pass, workers, parallelism, round >= retry.sessionRounds, stopped, step);
+            if (again.isEmpty() || stopped.get()) break;
+            step.beforeRound(round + 1, again.size());
+            try {
+                retry.backoffRound();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break; // оставшиеся ролики не тронуты — продолжим при следующем запуске
+            }
+            pass = again;
+        }
+        return stopped.get();
+    }
+
+    private static <T> List<T> runPass(List<T> batch, int workers, @Nullable IntSupplier parallelism,
+                                       boolean lastRound, AtomicBoolean stopped, Step<T> step) {
+        AtomicInteger next = new AtomicInteger(0);
+        List<T> retryLater = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < Math.max(1, workers); w++) {
+            final int slot = w;
+            threads.add(new Thread(() -> {
+                while (next.get() < batch.size() && !stopped.get()) {
+                    if (parallelism != null && slot >= parallelism.getAsInt()) {
+                        try { Thread.sleep(500); } catch (InterruptedException e) { return; }
+                        continue;
+                    }
+                    int idx = next.getAndIncrement();
+                    if (idx >= batch.size()) break;
+                    T item = batch.get(idx);
+                    int outcome = step.run(item, lastRound);
+                    if (outcome == STOP) stopped.set(true);
+                    else if (outcome == RETRY) retryLater.add(item);
+                }
+            }));
+        }
+        if (threads.size() == 1) {
+            threads.get(0).run(); // один воркер — в текущем потоке
+        } else {
+            for (Thread t : threads) t.start();
+            for (Thread t : threads) {
+                try { t.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        }
+        return new ArrayList<>(retryLater);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Формат манифеста SHA256SUMS, совместимый с `sha256sum -c`: строки "&lt;hex&gt;  &lt;name&gt;"
+ * (или "&lt;hex&gt; *&lt;name&gt;"), имена с '\n' и '\\' экранируются как в GNU coreutils.
+ */
+public final class Sha256Sums {
+
+    public static final String FILE_NAME = "SHA256SUMS";
+
+    private static final int HEX_LEN = 64;
+
+    /** Имя → хэш и хэш → имя; заполняется одним проходом по манифесту. */
+    public static class Index {
+        private final Map<String, String> byName = new LinkedHashMap<>();
+        private final Map<String, String> byHash = new HashMap<>();
+
+        public synchronized void put(String name, String sha256) {
+            String old = byName.put(name, sha256);
+            if (old != null && name.equals(byHash.get(old))) byHash.remove(old);
+            byHash.put(sha256, name);
+        }
+
+        public synchronized @Nullable String hashOf(String name) {
+            return byName.get(name);
+        }
+
+        /** Какой файл в папке уже имеет такой хэш (для поиска дублей). */
+        public synchronized @Nullable String nameOf(String sha256) {
+            return byHash.get(sha256);
+        }
+
+        public synchronized int size() {
+            return byName.size();
+        }
+
+        /** Копия записей в порядке добавления — для полной перезаписи манифеста. */
+        public synchronized Map<String, String> entries() {
+            return new LinkedHashMap<>(byName);
+        }
+    }
+
+    private Sha256Sums() {}
+
+    public static String formatLine(String sha256, String name) {
+        if (name.indexOf('\n') < 0 && name.indexOf('\\') < 0 && name.indexOf('\r') < 0) {
+            return sha256 + "  " + name + "\n";
+        }
+        String escaped = name.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+        return "\\" + sha256 + "  " + escaped + "\n";
+    }
+
+    /** Читает манифест потоком, построчно; битые строки пропускаются. Поток не закрывается. */
+    public static Index load(InputStream in) throws IOException {
+        Index idx = new Index();
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        String line;
+        while ((line = r.readLine()) != null) parseLine(line, idx);
+        return idx;
+    }
+
+    static void parseLine(String line, Index into) {
+        boolean escaped = line.startsWith("\\");
+        int p = escaped ? 1 : 0;
+        if (line.length() < p + HEX_LEN + 2) return;
+        String hash = line.substring(p, p + HEX_LEN).toLowerCase();
+        if (!isHex(hash)) return;
+        char sep = line.charAt(p + HEX_LEN);
+        char mode = line.charAt(p + HEX_LEN + 1);
+        if (sep != ' ' || (mode != ' ' && mode != '*')) return;
+        String name = line.substring(p + HEX_LEN + 2);
+        if (escaped) name = unescape(name);
+        if (!name.isEmpty()) into.put(name, hash);
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+}
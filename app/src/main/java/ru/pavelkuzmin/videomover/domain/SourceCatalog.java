@@ -0,0 +1,23 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/** Откуда берём ролики: MediaStore на устройстве, папка на диске или синтетика в тестах. */
+public interface SourceCatalog {
+
+    class Item {
+        public final long id;
+        public final String name;
+        public final long size;
+
+        public Item(long id, String name, long size) {
+            this.id = id; this.name = name; this.size = size;
+        }
+    }
+
+    List<Item> list() throws IOException;
+
+    InputStream open(Item item) throws IOException;
+}
@@ -0,0 +1,10 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+
+/** Исходник пропал или изменился посреди копирования — продолжать запись бессмысленно. */
+public class SourceChangedException extends IOException {
+    public SourceChangedException(String message) {
+        super(message);
+    }
+}
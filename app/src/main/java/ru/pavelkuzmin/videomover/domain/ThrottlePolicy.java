@@ -0,0 +1,46 @@
+package ru.pavelkuzmin.videomover.domain;
+
+/**
+ * Чистая логика «насколько притормозить» по тепловому статусу и режиму энергосбережения.
+ * Коды статусов совпадают с PowerManager.THERMAL_STATUS_*.
+ */
+public final class ThrottlePolicy {
+
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+    public static final int THERMAL_CRITICAL = 4;
+
+    /** От чего считать долю, если пользователь не задал лимит, а телефон уже греется. */
+    public static final long NOMINAL_BYTES_PER_SEC = 60L * 1024 * 1024;
+
+    private ThrottlePolicy() {}
+
+    /** Доля от номинальной скорости: 1.0 — не тормозим. */
+    public static double rateFactor(int thermalStatus, boolean powerSave) {
+        double f;
+        if (thermalStatus >= THERMAL_CRITICAL) f = 0.1;
+        else if (thermalStatus == THERMAL_SEVERE) f = 0.25;
+        else if (thermalStatus == THERMAL_MODERATE) f = 0.5;
+        else f = 1.0;
+        if (powerSave) f *= 0.5;
+        return f;
+    }
+
+    /** Итоговый лимит для RateLimiter; 0 — без ограничения. */
+    public static long effectiveRate(long capBytesPerSec, int thermalStatus, boolean powerSave) {
+        double f = rateFactor(thermalStatus, powerSave);
+        if (f >= 1.0) return capBytesPerSec;
+        long base = capBytesPerSec > 0 ? capBytesPerSec : NOMINAL_BYTES_PER_SEC;
+        return Math.max(1, (long) (base * f));
+    }
+
+    /** Сколько файлов копировать одновременно. */
+    public static int parallelism(int base, int thermalStatus, boolean powerSave) {
+        base = Math.max(1, base);
+        if (powerSave || thermalStatus >= THERMAL_SEVERE) return 1;
+        if (thermalStatus == THERMAL_MODERATE) return Math.max(1, base / 2);
+        return base;
+    }
+}
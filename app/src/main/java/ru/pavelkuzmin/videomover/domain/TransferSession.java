@@ -0,0 +1,77 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Перенос всех роликов из SourceCatalog в DestStorage тем же ядром, что и CopyService (FileCopier + SessionRunner),
+ * без Android-зависимостей. Используется JVM-стендом для замеров пропускной способности.
+ */
+public final class TransferSession {
+
+    public static class Report {
+        public final int ok;
+        public final int fail;
+        public final long bytes;
+        public final long elapsedNanos;
+        public final List<FileCopier.Result> results;
+
+        Report(int ok, int fail, long bytes, long elapsedNanos, List<FileCopier.Result> results) {
+            this.ok = ok; this.fail = fail; this.bytes = bytes; this.elapsedNanos = elapsedNanos; this.results = results;
+        }
+
+        public double bytesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : bytes * 1e9 / elapsedNanos;
+        }
+
+        public double filesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : (ok + fail) * 1e9 / elapsedNanos;
+        }
+    }
+
+    private TransferSession() {}
+
+    public static Report run(SourceCatalog source, DestStorage dest, int workers,
+                             @Nullable RateLimiter limiter, RateLimiter.Clock clock) throws IOException {
+        return run(source, dest, workers, limiter, clock, RetryPolicy.NONE);
+    }
+
+    /**
+     * С повторами: каждый шаг копии повторяется по retry, а ролики, упавшие с временной ошибкой,
+     * ещё retry.sessionRounds раз ставятся в конец сессии (тем же SessionRunner, что и в CopyService).
+     */
+    public static Report run(SourceCatalog source, DestStorage dest, int workers,
+                             @Nullable RateLimiter limiter, RateLimiter.Clock clock,
+                             RetryPolicy retry) throws IOException {
+        List<SourceCatalog.Item> items = source.list();
+        FileCopier.Result[] results = new FileCopier.Result[items.size()];
+        long start = clock.nanoTime();
+
+        List<Integer> all = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) all.add(i);
+        SessionRunner.run(all, workers, null, retry, (idx, lastRound) -> {
+            SourceCatalog.Item it = items.get(idx);
+            FileCopier.Result r = FileCopier.copy(() -> source.open(it), it.name, it.size, dest, limiter, retry);
+            results[idx] = r;
+            return r.retryable() && !lastRound ? SessionRunner.RETRY : SessionRunner.DONE;
+        });
+
+        int ok = 0;
+        int fail = 0;
+        long bytes = 0;
+        List<FileCopier.Result> list = new ArrayList<>(results.length);
+        for (FileCopier.Result r : results) {
+            list.add(r);
+            if (r.ok) {
+                ok++;
+                bytes += r.bytes;
+            } else {
+                fail++;
+            }
+        }
+        return new Report(ok, fail, bytes, clock.nanoTime() - start, list);
+    }
+}
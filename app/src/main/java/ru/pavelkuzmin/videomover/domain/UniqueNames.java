@@ -0,0 +1,41 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Учёт занятых имён для DestStorage без повторных запросов к хранилищу. */
+public class UniqueNames {
+    private final Set<String> existing;
+    private final Set<String> reserved = new HashSet<>();
+
+    public UniqueNames(Collection<String> existing) {
+        this.existing = new HashSet<>(existing);
+    }
+
+    public synchronized String reserve(String base, String ext) {
+        String candidate = base + ext;
+        int n = 1;
+        while (existing.contains(candidate) || reserved.contains(candidate)) {
+            candidate = base + " (" + n + ")" + ext;
+            n++;
+        }
+        reserved.add(candidate);
+        return candidate;
+    }
+
+    public synchronized void release(String name) {
+        reserved.remove(name);
+    }
+
+    /** Файл с таким именем появился в хранилище. */
+    public synchronized void taken(String name) {
+        existing.add(name);
+        reserved.remove(name);
+    }
+
+    /** Файл с таким именем исчез из хранилища. */
+    public synchronized void freed(String name) {
+        existing.remove(name);
+    }
+}
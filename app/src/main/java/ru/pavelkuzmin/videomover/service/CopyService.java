@@ -9,20 +9,54 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
-import androidx.documentfile.provider.DocumentFile;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import ru.pavelkuzmin.videomover.MainActivity;
 import ru.pavelkuzmin.videomover.R;
+import ru.pavelkuzmin.videomover.data.ChecksumManifest;
+import ru.pavelkuzmin.videomover.data.CopyQueue;
+import ru.pavelkuzmin.videomover.data.DestIndex;
+import ru.pavelkuzmin.videomover.data.InstantMover;
 import ru.pavelkuzmin.videomover.data.MediaQuery;
+import ru.pavelkuzmin.videomover.data.MediaStoreCatalog;
+import ru.pavelkuzmin.videomover.data.SafDestStorage;
+import ru.pavelkuzmin.videomover.data.SafTree;
+import ru.pavelkuzmin.videomover.data.SettingsStore;
+import ru.pavelkuzmin.videomover.data.WebDavStorage;
+import ru.pavelkuzmin.videomover.domain.ClipPack;
+import ru.pavelkuzmin.videomover.domain.DestStorage;
+import ru.pavelkuzmin.videomover.domain.DurableCommit;
 import ru.pavelkuzmin.videomover.domain.FileCopier;
+import ru.pavelkuzmin.videomover.domain.Fingerprint;
+import ru.pavelkuzmin.videomover.domain.MediaProcessor;
+import ru.pavelkuzmin.videomover.domain.PageCache;
+import ru.pavelkuzmin.videomover.domain.RateLimiter;
+import ru.pavelkuzmin.videomover.domain.RetryPolicy;
+import ru.pavelkuzmin.videomover.domain.SessionRunner;
+import ru.pavelkuzmin.videomover.util.HashUtil;
 
 public class CopyService extends Service {
 
@@ -32,15 +66,23 @@ public class CopyService extends Service {
 
     public static final String EXTRA_DEST_URI = "extra_dest_uri";
     public static final String EXTRA_REL_PREFIX = "extra_rel_prefix";
+    public static final String EXTRA_MEDIA_WRITE_GRANTED = "extra_media_write_granted"; // createWriteRequest одобрен
 
     public static final String EXTRA_TOTAL = "extra_total";
     public static final String EXTRA_DONE = "extra_done";
     public static final String EXTRA_FAIL = "extra_fail";
     public static final String EXTRA_OK = "extra_ok";
+    public static final String EXTRA_SKIPPED = "extra_skipped"; // уже были в назначении
+    public static final String EXTRA_MOVED = "extra_moved"; // перенесены без копирования (тот же том)
+    public static final String EXTRA_NO_SPACE = "extra_no_space"; // остановились: в назначении нет места
+    public static final String EXTRA_SYNC_COUNT = "extra_sync_count"; // сколько файлов прошло fsync
+    public static final String EXTRA_SYNC_MS = "extra_sync_ms"; // сколько это стоило, мс
+    public static final String EXTRA_DEST_ERROR = "extra_dest_error"; // сетевое назначение недоступно
     public static final String EXTRA_TO_DELETE = "extra_to_delete"; // ArrayList<String> (Uri.toString)
 
     private static final String CHANNEL_ID = "copy_channel";
     private static final int NOTIF_ID = 1;
+    private static final String TAG = "CopyService";
 
     private NotificationManager nm;
 
@@ -70,14 +112,16 @@ public class CopyService extends Service {
 
         String destUriStr = intent.getStringExtra(EXTRA_DEST_URI);
         String relPrefix = intent.getStringExtra(EXTRA_REL_PREFIX);
+        boolean mediaWriteGranted = intent.getBooleanExtra(EXTRA_MEDIA_WRITE_GRANTED, false);
         if (destUriStr == null) {
             stopSelf();
             return START_NOT_STICKY;
         }
 
-        Uri destTree = Uri.parse(destUriStr);
-        DocumentFile destDir = DocumentFile.fromTreeUri(this, destTree);
-        if (destDir == null || !destDir.canWrite()) {
+        // http(s) — папка на WebDAV-сервере; подключаемся уже в рабочем потоке
+        boolean network = WebDavStorage.isWebDavUrl(destUriStr);
+        SafTree destDir = network ? null : SafTree.open(this, Uri.parse(destUriStr));
+        if (!network && (destDir == null || !destDir.canWrite())) {
             stopSelf();
             return START_NOT_STICKY;
         }
@@ -91,41 +135,250 @@ public class CopyService extends Service {
         startForeground(NOTIF_ID, startNotif);
 
         new Thread(() -> {
-            List<MediaQuery.VideoItem> items = MediaQuery.findCameraVideosList(this, relPrefix);
-            int total = items.size();
+            WebDavStorage opened = null;
+            if (network) {
+                try {
+                    opened = WebDavStorage.open(destUriStr,
+                            SettingsStore.getWebDavUser(this), SettingsStore.getWebDavPassword(this));
+                } catch (IOException | SecurityException e) {
+                    Log.w(TAG, "WebDAV недоступен: " + destUriStr, e);
+                    finishDestUnreachable(String.valueOf(e.getMessage()), startId);
+                    return;
+                }
+            }
+            final WebDavStorage webDav = opened;
 
-            AtomicInteger done = new AtomicInteger(0);
-            AtomicInteger ok = new AtomicInteger(0);
-            AtomicInteger fail = new AtomicInteger(0);
-            ArrayList<String> toDelete = new ArrayList<>();
+            // Очередь в SQLite: если процесс убили посреди переноса — продолжаем ту же сессию
+            CopyQueue queue = CopyQueue.get(this);
+            CopyQueue.Session session = queue.session();
+            if (session != null && session.state == CopyQueue.SESSION_RUNNING && destUriStr.equals(session.destUri)) {
+                // .partial роликов из очереди дописываются с того же места, остальные хвосты — мусор
+                Set<String> inQueue = new HashSet<>(queue.tempNames().values());
+                Set<String> alive = webDav != null
+                        ? webDav.deleteBySuffix(FileCopier.PARTIAL_SUFFIX, inQueue)
+                        : destDir.deleteBySuffix(FileCopier.PARTIAL_SUFFIX, inQueue);
+                queue.resetInterrupted(alive);
+            } else {
+                queue.startSession(destUriStr, relPrefix, mediaWriteGranted,
+                        MediaQuery.findCameraVideosList(this, relPrefix));
+            }
+            boolean mediaWrite = session != null && session.state == CopyQueue.SESSION_RUNNING
+                    ? session.mediaWriteGranted || mediaWriteGranted : mediaWriteGranted;
+
+            List<MediaQuery.VideoItem> items = queue.itemsInState(CopyQueue.PENDING);
+            Map<Long, String> leftover = queue.tempNames();
+            int total = queue.count();
+
+            AtomicInteger done = new AtomicInteger(total - items.size());
+            AtomicInteger ok = new AtomicInteger(queue.count(CopyQueue.COPIED, CopyQueue.VERIFIED, CopyQueue.DELETED));
+            AtomicInteger fail = new AtomicInteger(queue.count(CopyQueue.FAILED));
+            AtomicInteger skipped = new AtomicInteger(0);
+            AtomicInteger moved = new AtomicInteger(0);
 
-            for (MediaQuery.VideoItem vitem : items) {
-                var res = FileCopier.copyWithSha256(this, vitem.uri(), vitem.displayName, vitem.size, destDir);
-                if (res.ok) {
-                    ok.incrementAndGet();
-                    toDelete.add(vitem.uri().toString());
-                } else {
-                    fail.incrementAndGet();
+            // Лимит скорости + автоподстройка под нагрев/энергосбережение
+            int workers = SettingsStore.getParallelism(this);
+            RateLimiter limiter = new RateLimiter(0);
+            DeviceThrottle throttle = new DeviceThrottle(this, limiter,
+                    SettingsStore.getRateLimitMbps(this) * 1024L * 1024L, workers);
+            throttle.start();
+            boolean lowMemory = SettingsStore.isLowMemory(this);
+            MediaProcessor processor = MediaProcessor.forMode(SettingsStore.getArchiveMode(this), lowMemory);
+            MediaStoreCatalog sources = new MediaStoreCatalog(this, relPrefix, lowMemory);
+            // индекс отпечатков и SHA256SUMS ведём только в папке SAF
+            DestIndex index = destDir == null ? null : DestIndex.load(this, destDir);
+            ChecksumManifest manifest = destDir == null ? null : ChecksumManifest.load(this, destDir);
+            boolean strongVerify = SettingsStore.isStrongVerify(this);
+
+            // Исходник становится кандидатом на удаление только после fsync копии (по политике).
+            // WebDAV-сервер подтверждает запись сам — ответ на MOVE уже означает «файл на месте»
+            String durability = webDav != null ? DurableCommit.MODE_NONE : SettingsStore.getDurability(this);
+            // Ролики одной пачки .tar лежат в одном файле: в DurableCommit идёт один из них (fsync один),
+            // остальные подтверждаются вместе с ним. Состав группы записывается до durable.add
+            Map<Long, List<Long>> sameFile = new ConcurrentHashMap<>();
+            DurableCommit<Long> durable = DurableCommit.forMode(durability,
+                    id -> syncDocument(destDir, queue.destName(id), lowMemory),
+                    new DurableCommit.Listener<Long>() {
+                        @Override public void onDurable(Long id) {
+                            for (Long m : withSameFile(sameFile, id)) queue.setState(m, CopyQueue.VERIFIED);
+                        }
+                        @Override public void onSyncFailed(Long id, IOException e) {
+                            for (Long m : withSameFile(sameFile, id)) {
+                                queue.markFailed(m, "fsync: " + e.getMessage());
+                                ok.decrementAndGet();
+                                fail.incrementAndGet();
+                            }
+                        }
+                    }, RateLimiter.SYSTEM_CLOCK);
+            // скопированные до смерти процесса, но ещё не подтверждённые
+            Map<String, Long> firstInFile = new HashMap<>();
+            List<Long> unconfirmed = new ArrayList<>();
+            for (Long id : queue.idsInState(CopyQueue.COPIED)) {
+                String name = queue.destName(id);
+                Long first = name == null ? null : firstInFile.putIfAbsent(name, id);
+                if (first == null) unconfirmed.add(id);
+                else sameFile.computeIfAbsent(first, k -> new ArrayList<>()).add(id);
+            }
+            for (Long id : unconfirmed) durable.add(id, 0);
+
+            // Мелкие ролики — одной пачкой .tar: три обращения к провайдеру на всю пачку, а не на каждый ролик.
+            // Ремукс меняет размер, а tar пишет его в заголовок заранее, поэтому пачки — только для копии как есть
+            long packLimit = processor.preservesBytes() ? SettingsStore.getPackThresholdMb(this) * 1024L * 1024L : 0;
+            List<MediaQuery.VideoItem> individual = new ArrayList<>();
+            List<MediaQuery.VideoItem> small = new ArrayList<>();
+            for (MediaQuery.VideoItem it : items) {
+                // недописанный .partial доделывается отдельно — в пачку его байты не попадут
+                boolean packable = it.size > 0 && it.size <= packLimit && !leftover.containsKey(it.id);
+                (packable ? small : individual).add(it);
+            }
+            if (small.size() < 2) {
+                individual = items;
+            } else {
+                List<MediaQuery.VideoItem> toPack = new ArrayList<>();
+                List<String> packFps = new ArrayList<>();
+                List<ClipPack.Clip> clips = new ArrayList<>();
+                for (MediaQuery.VideoItem vitem : small) {
+                    queue.setState(vitem.id, CopyQueue.COPYING);
+                    String fp = index == null ? null : fingerprintOrNull(vitem.uri());
+                    if (fp != null && isAlreadyPresent(index, manifest, fp, vitem.uri(), strongVerify, processor.preservesBytes())) {
+                        queue.setState(vitem.id, CopyQueue.VERIFIED);
+                        ok.incrementAndGet();
+                        skipped.incrementAndGet();
+                        publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                        continue;
+                    }
+                    String movedName = destDir == null ? null : InstantMover.tryMove(this, destDir, vitem, mediaWrite);
+                    if (movedName != null) {
+                        queue.setState(vitem.id, CopyQueue.DELETED);
+                        ok.incrementAndGet();
+                        moved.incrementAndGet();
+                        if (fp != null) index.add(fp, movedName);
+                        publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                        continue;
+                    }
+                    toPack.add(vitem);
+                    packFps.add(fp);
+                    clips.add(new ClipPack.Clip() {
+                        @Override public String name() { return vitem.displayName; }
+                        @Override public long size() { return vitem.size; }
+                        // 0 — ролик из очереди старой версии без даты съёмки: лучше «сейчас», чем 1970 год
+                        @Override public long mtimeMillis() { return vitem.dateTaken > 0 ? vitem.dateTaken : System.currentTimeMillis(); }
+                        @Override public InputStream open() throws IOException { return sources.open(vitem.uri()); }
+                    });
+                }
+                DestStorage packDest = webDav != null ? webDav : new SafDestStorage(this, destDir);
+                String packBase = "clips_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+                ClipPack.Result packed = toPack.isEmpty() ? null : ClipPack.write(packDest, packBase, clips, limiter);
+                if (packed != null && packed.error != null) {
+                    // пачка не записалась — эти ролики пойдут по одному, со своими повторами
+                    Log.w(TAG, "Пачка " + packBase + " не записана, копируем по одному", packed.error);
+                    for (MediaQuery.VideoItem it : toPack) queue.setState(it.id, CopyQueue.PENDING);
+                    individual.addAll(toPack);
+                } else if (packed != null) {
+                    List<Long> inPack = new ArrayList<>();
+                    for (int i = 0; i < toPack.size(); i++) {
+                        MediaQuery.VideoItem vitem = toPack.get(i);
+                        ClipPack.Entry e = packed.entries[i];
+                        if (e != null) {
+                            queue.markCopied(vitem.id, packed.name, e.sha256);
+                            ok.incrementAndGet();
+                            if (packFps.get(i) != null) index.add(packFps.get(i), packed.name);
+                            inPack.add(vitem.id);
+                        } else if (RetryPolicy.classify(packed.errors[i]) == RetryPolicy.TRANSIENT) {
+                            queue.setState(vitem.id, CopyQueue.PENDING);
+                            individual.add(vitem);
+                            continue;
+                        } else {
+                            queue.markFailed(vitem.id, String.valueOf(packed.errors[i].getMessage()));
+                            fail.incrementAndGet();
+                        }
+                        publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                    }
+                    if (!inPack.isEmpty()) {
+                        sameFile.put(inPack.get(0), new ArrayList<>(inPack.subList(1, inPack.size())));
+                        durable.add(inPack.get(0), packed.bytes);
+                    }
+                    if (packed.name != null) {
+                        Log.i(TAG, "Пачка " + packed.name + ": " + packed.bytes + " байт");
+                        if (manifest != null) manifest.add(packed.name, packed.sha256);
+                    }
                 }
-                int d = done.incrementAndGet();
-
-                // Обновляем уведомление
-                nm.notify(NOTIF_ID, buildNotification(
-                        getString(R.string.notif_title),
-                        getString(R.string.notif_copy_in_progress, d, total),
-                        d, total, false, true
-                ));
-
-                // Шлём прогресс в Activity
-                Intent progress = new Intent(ACTION_PROGRESS);
-                progress.setPackage(getPackageName());
-                progress.putExtra(EXTRA_DONE, d);
-                progress.putExtra(EXTRA_TOTAL, total);
-                progress.putExtra(EXTRA_FAIL, fail.get());
-                progress.putExtra(EXTRA_OK, ok.get());
-                sendBroadcast(progress);
             }
 
+            // Временные сбои повторяются внутри FileCopier; не помогло — ролик уходит в конец сессии
+            RetryPolicy retry = RetryPolicy.standard(RateLimiter.SYSTEM_CLOCK);
+            // «лишние» воркеры ждут, пока устройство не остынет
+            boolean noSpace = SessionRunner.run(individual, workers, throttle::parallelism, retry,
+                    new SessionRunner.Step<MediaQuery.VideoItem>() {
+                @Override public int run(MediaQuery.VideoItem vitem, boolean lastRound) {
+                    queue.setState(vitem.id, CopyQueue.COPYING);
+
+                    // Быстрая проверка «уже перенесён?» по отпечатку, без полного копирования
+                    String fp = index == null ? null : fingerprintOrNull(vitem.uri());
+                    if (fp != null && isAlreadyPresent(index, manifest, fp, vitem.uri(), strongVerify, processor.preservesBytes())) {
+                        queue.setState(vitem.id, CopyQueue.VERIFIED);
+                        ok.incrementAndGet();
+                        skipped.incrementAndGet();
+                        publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                        return SessionRunner.DONE;
+                    }
+
+                    // Тот же том — меняем только метаданные, исходник удалять не нужно
+                    String movedName = destDir == null ? null : InstantMover.tryMove(CopyService.this, destDir, vitem, mediaWrite);
+                    if (movedName != null) {
+                        queue.setState(vitem.id, CopyQueue.DELETED);
+                        ok.incrementAndGet();
+                        moved.incrementAndGet();
+                        if (fp != null) index.add(fp, movedName);
+                        publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                        return SessionRunner.DONE;
+                    }
+
+                    // имя .partial — в очереди: убьют процесс посреди записи, допишем в тот же файл
+                    FileCopier.TempLog temp = new FileCopier.TempLog() {
+                        @Override public String find() { return queue.tempName(vitem.id); }
+                        @Override public void set(String name) { queue.setTempName(vitem.id, name); }
+                    };
+                    var res = webDav != null
+                            ? FileCopier.copy(() -> sources.open(vitem.uri()), vitem.displayName, vitem.size, webDav, limiter, retry, temp)
+                            : FileCopier.copyWithSha256(CopyService.this, vitem.uri(), vitem.displayName, vitem.size,
+                                    new SafDestStorage(CopyService.this, destDir), limiter, processor, retry, temp);
+                    if (res.ok) {
+                        queue.markCopied(vitem.id, res.finalName, res.sha256);
+                        ok.incrementAndGet();
+                        if (fp != null) index.add(fp, res.finalName);
+                        if (manifest != null) manifest.add(res.finalName, res.sha256);
+                        durable.add(vitem.id, res.bytes);
+                    } else if (res.noSpace) {
+                        // место кончилось ещё на предвыделении — не мучаем носитель остальными роликами
+                        queue.setState(vitem.id, CopyQueue.PENDING);
+                        return SessionRunner.STOP;
+                    } else if (res.retryable() && !lastRound) {
+                        // сеть/носитель «моргнули» — вернёмся к ролику в конце сессии, с того же места
+                        queue.setState(vitem.id, CopyQueue.PENDING);
+                        return SessionRunner.RETRY;
+                    } else {
+                        queue.markFailed(vitem.id, res.error);
+                        fail.incrementAndGet();
+                    }
+                    publishProgress(done.incrementAndGet(), total, ok.get(), fail.get());
+                    return SessionRunner.DONE;
+                }
+
+                @Override public void beforeRound(int round, int count) {
+                    Log.i(TAG, "повтор в конце сессии: " + count + " роликов, проход " + round);
+                }
+            });
+            throttle.stop();
+            durable.flush();
+            if (index != null) index.flush(this);
+            if (manifest != null) manifest.flush();
+            queue.finishSession();
+            long syncMs = durable.syncNanos() / 1_000_000L;
+            Log.i(TAG, "fsync: " + durable.syncCount() + " файлов, " + syncMs + " мс");
+
+            ArrayList<String> toDelete = new ArrayList<>();
+            for (MediaQuery.VideoItem it : queue.itemsInState(CopyQueue.VERIFIED)) toDelete.add(it.uri().toString());
+
             // Финал: уведомление и широковещалка с результатом
             nm.notify(NOTIF_ID, buildNotification(
                     getString(R.string.notif_title),
@@ -138,14 +391,126 @@ public class CopyService extends Service {
             doneIntent.putExtra(EXTRA_TOTAL, total);
             doneIntent.putExtra(EXTRA_FAIL, fail.get());
             doneIntent.putExtra(EXTRA_OK, ok.get());
+            doneIntent.putExtra(EXTRA_SKIPPED, skipped.get());
+            doneIntent.putExtra(EXTRA_MOVED, moved.get());
+            doneIntent.putExtra(EXTRA_NO_SPACE, noSpace);
+            doneIntent.putExtra(EXTRA_SYNC_COUNT, durable.syncCount());
+            doneIntent.putExtra(EXTRA_SYNC_MS, syncMs);
             doneIntent.putStringArrayListExtra(EXTRA_TO_DELETE, toDelete);
             sendBroadcast(doneIntent);
 
             stopForeground(true);
-            stopSelf();
+            stopSelf(startId);
         }).start();
 
-        return START_NOT_STICKY;
+        // Если систему убьют посреди переноса — она повторно доставит этот же интент, и очередь продолжится
+        return START_REDELIVER_INTENT;
+    }
+
+    /** Сервер не ответил или отказал в доступе — сообщаем об этом и ничего не трогаем в очереди. */
+    private void finishDestUnreachable(String error, int startId) {
+        Intent doneIntent = new Intent(ACTION_DONE);
+        doneIntent.setPackage(getPackageName());
+        doneIntent.putExtra(EXTRA_DEST_ERROR, error);
+        doneIntent.putStringArrayListExtra(EXTRA_TO_DELETE, new ArrayList<>());
+        sendBroadcast(doneIntent);
+        stopForeground(true);
+        stopSelf(startId);
+    }
+
+    /** Сам id и ролики, лежащие с ним в одном файле (группа забирается — подтверждается один раз). */
+    private static List<Long> withSameFile(Map<Long, List<Long>> sameFile, Long id) {
+        List<Long> out = new ArrayList<>();
+        out.add(id);
+        List<Long> rest = sameFile.remove(id);
+        if (rest != null) out.addAll(rest);
+        return out;
+    }
+
+    private @Nullable String fingerprintOrNull(Uri uri) {
+        try {
+            return Fingerprint.of(getContentResolver(), uri);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Отпечаток совпал. Без строгой проверки побайтовой копии хватает совпадения размера
+     * (для пачки — ролика такого размера в её индексе); при строгой проверке или ремуксе,
+     * где размер ничего не говорит, нужен совпавший полный SHA-256.
+     * Хэш копии берём из SHA256SUMS, если он там есть, — тогда читать приходится только исходник.
+     */
+    private boolean isAlreadyPresent(DestIndex index, ChecksumManifest manifest, String fp, Uri src,
+                                     boolean strongVerify, boolean sameBytes) {
+        Uri existing = index.findPresent(fp, sameBytes);
+        if (existing == null) return false;
+        String name = index.nameOf(fp);
+        boolean pack = name != null && name.endsWith(ClipPack.EXTENSION);
+        if (!strongVerify && sameBytes) {
+            if (!pack) return true;
+            long size = Fingerprint.sizeOf(fp);
+            return findInPack(existing, e -> e.size == size);
+        }
+        String known = name == null ? null : manifest.index().hashOf(name);
+        try (InputStream a = getContentResolver().openInputStream(src)) {
+            if (a == null) return false;
+            String srcHash = HashUtil.sha256(a);
+            // в пачке .tar ролик ищется по хэшу в её индексе
+            if (pack) return findInPack(existing, e -> srcHash.equals(e.sha256));
+            if (known != null) return srcHash.equals(known);
+            try (InputStream b = getContentResolver().openInputStream(existing)) {
+                return b != null && srcHash.equals(HashUtil.sha256(b));
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Есть ли в индексе пачки подходящий ролик; пачка не читается — нет. */
+    private boolean findInPack(Uri pack, Predicate<ClipPack.Entry> match) {
+        try (ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(pack, "r")) {
+            if (pfd == null) return false;
+            FileChannel ch = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+            for (ClipPack.Entry e : ClipPack.Reader.open(ch).entries()) {
+                if (match.test(e)) return true;
+            }
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * fsync уже закрытого документа: сбрасывает его грязные страницы на носитель.
+     * lowMemory — после этого все страницы чистые, и файл целиком уходит из page cache.
+     */
+    private void syncDocument(SafTree destDir, @Nullable String name, boolean lowMemory) throws IOException {
+        SafTree.Child doc = name == null ? null : destDir.find(name);
+        if (doc == null) throw new FileNotFoundException(String.valueOf(name));
+        try (ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(doc.uri, "r")) {
+            if (pfd == null) throw new IOException("Нет дескриптора");
+            pfd.getFileDescriptor().sync();
+            if (lowMemory) PageCache.drop(pfd.getFileDescriptor());
+        }
+    }
+
+    private void publishProgress(int d, int total, int ok, int fail) {
+        // Обновляем уведомление
+        nm.notify(NOTIF_ID, buildNotification(
+                getString(R.string.notif_title),
+                getString(R.string.notif_copy_in_progress, d, total),
+                d, total, false, true
+        ));
+
+        // Шлём прогресс в Activity
+        Intent progress = new Intent(ACTION_PROGRESS);
+        progress.setPackage(getPackageName());
+        progress.putExtra(EXTRA_DONE, d);
+        progress.putExtra(EXTRA_TOTAL, total);
+        progress.putExtra(EXTRA_FAIL, fail);
+        progress.putExtra(EXTRA_OK, ok);
+        sendBroadcast(progress);
     }
 
     private void createChannel() {
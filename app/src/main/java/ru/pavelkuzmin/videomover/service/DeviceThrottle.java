@@ -0,0 +1,68 @@
+package ru.pavelkuzmin.videomover.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+
+import ru.pavelkuzmin.videomover.domain.RateLimiter;
+import ru.pavelkuzmin.videomover.domain.ThrottlePolicy;
+
+/** Следит за нагревом и энергосбережением и подстраивает RateLimiter/параллельность по ThrottlePolicy. */
+class DeviceThrottle {
+
+    private final Context ctx;
+    private final PowerManager pm;
+    private final RateLimiter limiter;
+    private final long capBytesPerSec;
+    private final int baseParallelism;
+
+    private volatile int parallelism;
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    private final BroadcastReceiver powerSaveReceiver = new BroadcastReceiver() {
+        @Override public void onReceive(Context context, Intent intent) { apply(); }
+    };
+
+    DeviceThrottle(Context ctx, RateLimiter limiter, long capBytesPerSec, int baseParallelism) {
+        this.ctx = ctx;
+        this.pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+        this.limiter = limiter;
+        this.capBytesPerSec = capBytesPerSec;
+        this.baseParallelism = Math.max(1, baseParallelism);
+        this.parallelism = this.baseParallelism;
+    }
+
+    void start() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalListener = status -> apply();
+            pm.addThermalStatusListener(ctx.getMainExecutor(), thermalListener);
+        }
+        ctx.registerReceiver(powerSaveReceiver,
+                new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED),
+                Context.RECEIVER_NOT_EXPORTED);
+        apply();
+    }
+
+    void stop() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalListener != null) {
+            pm.removeThermalStatusListener(thermalListener);
+        }
+        try { ctx.unregisterReceiver(powerSaveReceiver); } catch (Exception ignore) {}
+    }
+
+    /** Сколько воркеров сейчас может копировать. */
+    int parallelism() {
+        return parallelism;
+    }
+
+    private void apply() {
+        int thermal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? pm.getCurrentThermalStatus() : ThrottlePolicy.THERMAL_NONE;
+        boolean powerSave = pm.isPowerSaveMode();
+        limiter.setRate(ThrottlePolicy.effectiveRate(capBytesPerSec, thermal, powerSave));
+        parallelism = ThrottlePolicy.parallelism(baseParallelism, thermal, powerSave);
+    }
+}
@@ -0,0 +1,134 @@
+package ru.pavelkuzmin.videomover.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import ru.pavelkuzmin.videomover.data.ChecksumManifest;
+import ru.pavelkuzmin.videomover.data.SafTree;
+import ru.pavelkuzmin.videomover.data.SettingsStore;
+import ru.pavelkuzmin.videomover.domain.PageCache;
+import ru.pavelkuzmin.videomover.domain.RateLimiter;
+import ru.pavelkuzmin.videomover.domain.Scrubber;
+import ru.pavelkuzmin.videomover.domain.Sha256Sums;
+
+/**
+ * Фоновая проверка архива на «битые» файлы: раз в сутки, только на зарядке.
+ * Каждый сеанс проверяет кусок папки назначения (по курсору) с ограничением скорости,
+ * расхождения с SHA256SUMS дописываются в отчёт {@link #REPORT_FILE} во внутренней памяти.
+ */
+public class ScrubJobService extends JobService {
+
+    public static final String REPORT_FILE = "scrub_report.txt";
+
+    private static final String TAG = "ScrubJob";
+    private static final int JOB_ID = 2;
+    private static final long BYTES_PER_SEC = 16L * 1024 * 1024; // не мешаем телефону и не греем USB
+    private static final long BUDGET_NANOS = TimeUnit.MINUTES.toNanos(8); // система даёт джобе ~10 минут
+
+    private volatile Thread worker;
+    private volatile boolean stopped;
+
+    /** Включает/выключает периодическую проверку по настройке. */
+    public static void schedule(Context ctx) {
+        JobScheduler js = ctx.getSystemService(JobScheduler.class);
+        if (js == null) return;
+        if (!SettingsStore.isScrubEnabled(ctx)) {
+            js.cancel(JOB_ID);
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(ctx, ScrubJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresBatteryNotLow(true)
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .setPersisted(true)
+                .build();
+        js.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Uri destTree = SettingsStore.getDestTreeUri(this);
+        SafTree tree = destTree == null ? null : SafTree.open(this, destTree);
+        if (tree == null) return false; // флешка не подключена — попробуем в следующий раз
+
+        stopped = false;
+        worker = new Thread(() -> {
+            Scrubber.Pass pass = scrub(tree);
+            Log.i(TAG, "проверено " + pass.checked + " файлов, " + pass.bytes / (1024 * 1024) + " МБ за "
+                    + pass.elapsedNanos / 1_000_000L + " мс; битых " + pass.corrupt + ", нечитаемых " + pass.unreadable
+                    + (pass.completed ? "; полный проход завершён" : ""));
+            if (!stopped) jobFinished(params, false);
+        });
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // сняли с зарядки или кончилось время — курсор уже сохранён, продолжим в следующий раз
+        stopped = true;
+        Thread t = worker;
+        if (t != null) t.interrupt();
+        return false;
+    }
+
+    private Scrubber.Pass scrub(SafTree tree) {
+        ChecksumManifest manifest = ChecksumManifest.load(this, tree);
+        Sha256Sums.Index index = manifest.index();
+        Scrubber.Archive archive = new Scrubber.Archive() {
+            @Override public List<String> names() { return tree.names(); }
+            @Override public String expectedSha256(String name) { return index.hashOf(name); }
+            @Override public InputStream open(String name) throws IOException {
+                SafTree.Child c = tree.find(name);
+                ParcelFileDescriptor pfd = c == null ? null : getContentResolver().openFileDescriptor(c.uri, "r");
+                if (pfd == null) throw new IOException("Нет доступа к " + name);
+                // архив читается целиком и один раз — в page cache ему делать нечего
+                return PageCache.readOnce(pfd);
+            }
+        };
+        Scrubber.Report report = new Scrubber.Report() {
+            @Override public void corrupt(String name, String expected, String actual) {
+                appendReport(name + "\tожидали " + expected + "\tполучили " + actual);
+            }
+            @Override public void unreadable(String name, String error) {
+                appendReport(name + "\tне читается: " + error);
+            }
+            @Override public void checkpoint(String cursor) {
+                SettingsStore.setScrubCursor(ScrubJobService.this, cursor);
+            }
+        };
+        Scrubber.Pass pass = Scrubber.run(archive, SettingsStore.getScrubCursor(this),
+                new RateLimiter(BYTES_PER_SEC), RateLimiter.SYSTEM_CLOCK, BUDGET_NANOS, () -> stopped, report);
+        SettingsStore.recordScrubPass(this, pass.cursor, pass.checked, pass.bytes,
+                pass.corrupt + pass.unreadable, pass.completed);
+        return pass;
+    }
+
+    private synchronized void appendReport(String line) {
+        String stamp = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US).format(new Date());
+        try (OutputStream out = new FileOutputStream(new File(getFilesDir(), REPORT_FILE), true)) {
+            out.write((stamp + "\t" + line + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "не удалось записать отчёт", e);
+        }
+    }
+}
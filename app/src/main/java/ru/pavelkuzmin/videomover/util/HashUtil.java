@@ -1,6 +1,9 @@
 package ru.pavelkuzmin.videomover.util;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class HashUtil {
     public static byte[] sha256(byte[] data, int len, MessageDigest md) {
@@ -8,6 +11,20 @@ public class HashUtil {
         return md.digest();
     }
 
+    /** Полный SHA-256 потока (hex). Поток не закрывается. */
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buf = new byte[1024 * 1024];
+        int read;
+        while ((read = in.read(buf)) != -1) md.update(buf, 0, read);
+        return toHex(md.digest());
+    }
+
     public static String toHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder(bytes.length * 2);
         for (byte b : bytes) sb.append(String.format("%02x", b));
@@ -0,0 +1,32 @@
+package ru.pavelkuzmin.videomover.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** k-way слияние уже отсортированных списков (например, выдачи MediaStore по разным томам). */
+public class SortedMerge {
+
+    /** Сливает lists, каждый из которых упорядочен по order, в один список не длиннее limit. */
+    public static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> order, int limit) {
+        int total = 0;
+        for (List<T> l : lists) total += l.size();
+        List<T> out = new ArrayList<>(Math.min(total, limit));
+        // голова каждого списка: [номер списка, позиция]; при равенстве — порядок списков сохраняется
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()), (a, b) -> {
+            int c = order.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+            return c != 0 ? c : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) heads.add(new int[] { i, 0 });
+        }
+        while (!heads.isEmpty() && out.size() < limit) {
+            int[] h = heads.poll();
+            List<T> src = lists.get(h[0]);
+            out.add(src.get(h[1]));
+            if (++h[1] < src.size()) heads.add(h);
+        }
+        return out;
+    }
+}
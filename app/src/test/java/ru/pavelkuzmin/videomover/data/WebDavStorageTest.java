@@ -0,0 +1,494 @@
+package ru.pavelkuzmin.videomover.data;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.pavelkuzmin.videomover.domain.FileCopier;
+import ru.pavelkuzmin.videomover.domain.NoSpaceException;
+import ru.pavelkuzmin.videomover.domain.RateLimiter;
+import ru.pavelkuzmin.videomover.domain.RetryPolicy;
+import ru.pavelkuzmin.videomover.domain.SourceCatalog;
+import ru.pavelkuzmin.videomover.domain.TransferSession;
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * WebDavStorage против WebDAV-«сервера» в том же процессе (com.sun.net.httpserver):
+ * файлы в памяти, частичный PUT по Content-Range, MOVE, искусственная задержка и сбои.
+ */
+public class WebDavStorageTest {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private FakeDav dav;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        dav = new FakeDav();
+        url = "http://127.0.0.1:" + dav.port() + "/dav/";
+    }
+
+    @After
+    public void tearDown() {
+        dav.stop();
+    }
+
+    @Test
+    public void concurrentUploads_allLandAndReuseConnections() throws Exception {
+        dav.latencyMs = 2;
+        MemoryCatalog src = new MemoryCatalog(24, 1, 5 * CHUNK, 7);
+        WebDavStorage dest = WebDavStorage.open(url, "user", "secret", CHUNK);
+
+        TransferSession.Report r = TransferSession.run(src, dest, 4, null, RateLimiter.SYSTEM_CLOCK);
+
+        assertEquals(24, r.ok);
+        assertEquals(0, r.fail);
+        for (SourceCatalog.Item it : src.list()) {
+            assertArrayEquals(it.name, src.bytes(it), dav.files.get(it.name));
+        }
+        for (String name : dav.files.keySet()) assertFalse(name, name.endsWith(FileCopier.PARTIAL_SUFFIX));
+        assertTrue(dav.authOk.get() > 0);
+        assertEquals(0, dav.authBad.get());
+        // на воркер — не больше двух одновременных запросов (сам воркер и отправитель кусков)
+        assertTrue("соединений: " + dav.ports.size(), dav.ports.size() <= 8);
+        assertTrue(dav.requests.get() > 10 * dav.ports.size());
+    }
+
+    @Test
+    public void largeFile_goesInRangedChunks() throws Exception {
+        byte[] data = random(3 * CHUNK + 100, 1);
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        dest.create("big.mp4");
+        try (OutputStream out = dest.openOutput("big.mp4")) {
+            out.write(data);
+        }
+
+        assertArrayEquals(data, dav.files.get("big.mp4"));
+        assertEquals(Arrays.asList(
+                null,
+                "bytes 65536-131071/*",
+                "bytes 131072-196607/*",
+                "bytes 196608-196707/196708"), dav.ranges.get("big.mp4"));
+    }
+
+    @Test
+    public void brokenChunk_resumesFromCommittedOffset() throws Exception {
+        byte[] data = random(5 * CHUNK + 17, 2);
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        dest.create("clip.mp4.partial");
+        dav.failPutNumber = 3; // третий кусок получит 503
+
+        WebDavStorage.ChunkedUpload up = dest.openOutput("clip.mp4.partial", 0);
+        try (OutputStream out = up) {
+            out.write(data);
+        } catch (IOException expected) {
+            // сбой всплывает на write или на close — смотря когда отправитель до него дошёл
+        }
+        assertTrue(dav.files.get("clip.mp4.partial").length < data.length);
+        long committed = up.committed();
+        assertEquals(2 * CHUNK, committed);
+        assertEquals(committed, dest.remoteLength("clip.mp4.partial"));
+
+        try (OutputStream out = dest.openOutput("clip.mp4.partial", committed)) {
+            out.write(data, (int) committed, data.length - (int) committed);
+        }
+        dest.rename("clip.mp4.partial", "clip.mp4");
+
+        assertArrayEquals(data, dav.files.get("clip.mp4"));
+        assertFalse(dav.files.containsKey("clip.mp4.partial"));
+        assertEquals(-1, dest.remoteLength("clip.mp4.partial"));
+    }
+
+    @Test
+    public void retryPolicy_resumesUploadWithoutResendingCommittedChunks() throws Exception {
+        byte[] data = random(6 * CHUNK + 5, 5);
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        dav.failPutNumber = 4;
+        RetryPolicy retry = new RetryPolicy(3, 0, 1_000_000L, 10_000_000L, RateLimiter.SYSTEM_CLOCK);
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "d.mp4", data.length, dest, null, retry);
+
+        assertTrue(r.error, r.ok);
+        assertArrayEquals(data, dav.files.get("d.mp4"));
+        // после сбоя 4-го куска продолжили с 3 * CHUNK: заново ушёл только он
+        List<String> ranges = dav.ranges.get("d.mp4.partial");
+        assertEquals(7, ranges.size());
+        assertEquals("bytes 196608-262143/*", ranges.get(3));
+        assertEquals(data.length + CHUNK, dav.bytesPut.get());
+    }
+
+    @Test(timeout = 20_000)
+    public void authRejectedMidUpload_failsWithoutHanging() throws Exception {
+        byte[] data = random(6 * CHUNK, 6);
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        dav.failPutNumber = 3;
+        dav.failPutCode = 401; // сессия на сервере истекла посреди загрузки
+        RetryPolicy retry = new RetryPolicy(3, 0, 1_000_000L, 10_000_000L, RateLimiter.SYSTEM_CLOCK);
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "e.mp4", data.length, dest, null, retry);
+
+        assertFalse(r.ok);
+        assertFalse("отказ в доступе повтором не лечится", r.retryable());
+        assertTrue(r.error, r.error.startsWith("SecurityException"));
+        assertFalse(dav.files.containsKey("e.mp4"));
+        assertFalse(dav.files.containsKey("e.mp4.partial"));
+        assertEquals(3, dav.puts.get());
+    }
+
+    @Test
+    public void existingNames_notOverwritten() throws Exception {
+        dav.files.put("a.mp4", new byte[] { 1, 2, 3 });
+        dav.files.put("b.mp4.partial", new byte[] { 9 });
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+
+        byte[] data = random(1000, 3);
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "a.mp4", data.length, dest, null);
+
+        assertTrue(r.error, r.ok);
+        assertEquals("a (1).mp4", r.finalName);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, dav.files.get("a.mp4"));
+        assertArrayEquals(data, dav.files.get("a (1).mp4"));
+        try {
+            dest.create("a.mp4");
+            fail("If-None-Match должен не дать затереть файл");
+        } catch (IOException expected) {
+            // 412
+        }
+
+        dav.files.put("c.mp4.partial", new byte[] { 7 });
+        dest = WebDavStorage.open(url, null, null, CHUNK);
+        assertEquals(Collections.singleton("c.mp4.partial"),
+                dest.deleteBySuffix(FileCopier.PARTIAL_SUFFIX, new HashSet<>(Arrays.asList("c.mp4.partial", "x.mp4.partial"))));
+        assertFalse(dav.files.containsKey("b.mp4.partial"));
+        assertTrue(dav.files.containsKey("c.mp4.partial")); // его ещё допишут
+    }
+
+    @Test
+    public void lostCreateResponse_retryAcceptsOwnEmptyFile() throws Exception {
+        dav.dropCreateOf = "g.mp4.partial";
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        byte[] data = random(2 * CHUNK, 7);
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "g.mp4", data.length, dest, null,
+                new RetryPolicy(3, 0, 1_000_000L, 10_000_000L, RateLimiter.SYSTEM_CLOCK));
+
+        assertTrue(r.error, r.ok);
+        assertEquals("g.mp4", r.finalName);
+        assertArrayEquals(data, dav.files.get("g.mp4"));
+        assertEquals(2, dav.creates.get()); // PUT повторён и получил 412 на уже созданный пустой файл
+    }
+
+    @Test
+    public void partialFromKilledProcess_resumedNotRestarted() throws Exception {
+        byte[] data = random(5 * CHUNK + 100, 6);
+        dav.files.put("f.mp4.partial", Arrays.copyOf(data, 3 * CHUNK)); // столько успели до смерти процесса
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        String[] temp = { "f.mp4.partial" };
+        FileCopier.TempLog log = new FileCopier.TempLog() {
+            @Override public String find() { return temp[0]; }
+            @Override public void set(String name) { temp[0] = name; }
+        };
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "f.mp4", data.length, dest, null,
+                RetryPolicy.NONE, log);
+
+        assertTrue(r.error, r.ok);
+        assertEquals("f.mp4", r.finalName);
+        assertArrayEquals(data, dav.files.get("f.mp4"));
+        assertEquals(HashUtil.sha256(new ByteArrayInputStream(data)), r.sha256);
+        // дописаны только недостающие куски
+        assertEquals(3, dav.ranges.get("f.mp4.partial").size());
+        assertEquals(data.length - 3 * CHUNK, dav.bytesPut.get());
+        assertNull(temp[0]);
+    }
+
+    @Test
+    public void quotaExceeded_reportedAsNoSpace() throws Exception {
+        dav.quotaBytes = 2 * CHUNK;
+        WebDavStorage dest = WebDavStorage.open(url, null, null, CHUNK);
+        byte[] data = random(4 * CHUNK, 4);
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "c.mp4", data.length, dest, null);
+
+        assertFalse(r.ok);
+        assertTrue(r.noSpace);
+        assertFalse(dav.files.containsKey("c.mp4.partial"));
+    }
+
+    @Test
+    public void wrongPassword_isSecurityError() throws Exception {
+        try {
+            WebDavStorage.open(url, "user", "wrong", CHUNK);
+            fail("ожидали SecurityException");
+        } catch (SecurityException expected) {
+            assertEquals(1, dav.authBad.get());
+        }
+    }
+
+    @Test
+    public void plainHttp_onlyForLanAddresses() {
+        assertTrue(WebDavStorage.isWebDavUrl("https://dav.example.com/Video/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://192.168.1.10:8080/dav/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://10.0.0.2/dav/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://172.20.1.1/dav/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://nas.local/dav/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://nas/dav/"));
+        assertTrue(WebDavStorage.isWebDavUrl("http://[fd12::5]/dav/"));
+        assertFalse(WebDavStorage.isWebDavUrl("http://dav.example.com/Video/"));
+        assertFalse(WebDavStorage.isWebDavUrl("http://172.32.0.1/dav/"));
+        assertFalse(WebDavStorage.isWebDavUrl("http://8.8.8.8/dav/"));
+        assertFalse(WebDavStorage.isWebDavUrl("ftp://nas.local/"));
+        assertFalse(WebDavStorage.isWebDavUrl(null));
+    }
+
+    @Test
+    public void multistatus_parsesNamesSizesAndSkipsFolders() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><D:multistatus xmlns:D=\"DAV:\">"
+                + "<D:response><D:href>/dav/</D:href><D:propstat><D:prop>"
+                + "<D:resourcetype><D:collection/></D:resourcetype></D:prop></D:propstat></D:response>"
+                + "<D:response><D:href>http://nas/dav/VID%201.mp4</D:href><D:propstat><D:prop>"
+                + "<D:resourcetype/><D:getcontentlength>42</D:getcontentlength></D:prop></D:propstat></D:response>"
+                + "<D:response><D:href>/dav/sub/</D:href><D:propstat><D:prop>"
+                + "<D:resourcetype><D:collection/></D:resourcetype></D:prop></D:propstat></D:response>"
+                + "</D:multistatus>";
+
+        Map<String, Long> m = WebDavStorage.parseMultistatus(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "/dav/", "1");
+
+        assertEquals(1, m.size());
+        assertEquals(Long.valueOf(42), m.get("VID 1.mp4"));
+    }
+
+    // === стенд ===
+
+    private static byte[] random(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /** Ролики в памяти. */
+    private static class MemoryCatalog implements SourceCatalog {
+        private final List<Item> items = new ArrayList<>();
+        private final List<byte[]> data = new ArrayList<>();
+
+        MemoryCatalog(int count, int minSize, int maxSize, long seed) {
+            Random rnd = new Random(seed);
+            for (int i = 0; i < count; i++) {
+                int size = minSize + rnd.nextInt(maxSize - minSize);
+                items.add(new Item(i, String.format("VID_%03d.mp4", i), size));
+                data.add(random(size, seed * 31 + i));
+            }
+        }
+
+        byte[] bytes(Item it) { return data.get((int) it.id); }
+
+        @Override public List<Item> list() { return items; }
+
+        @Override public InputStream open(Item item) { return new ByteArrayInputStream(bytes(item)); }
+    }
+
+    /** Минимальный WebDAV: одна плоская папка /dav/ в памяти. */
+    private static class FakeDav {
+        private static final String PREFIX = "/dav/";
+        private static final String GOOD_AUTH = "Basic dXNlcjpzZWNyZXQ="; // user:secret
+
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        final Map<String, List<String>> ranges = new ConcurrentHashMap<>();
+        final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger authOk = new AtomicInteger();
+        final AtomicInteger authBad = new AtomicInteger();
+        final AtomicInteger puts = new AtomicInteger();
+        final AtomicLong bytesPut = new AtomicLong();
+        volatile long latencyMs;
+        volatile int failPutNumber;   // номер PUT с данными, на который ответить failPutCode; 0 — без сбоев
+        volatile int failPutCode = 503;
+        volatile long quotaBytes;     // 0 — без ограничения
+        volatile String dropCreateOf; // пустой PUT этого файла выполняется, но ответ теряется (обрыв соединения)
+        final AtomicInteger creates = new AtomicInteger();
+
+        private final HttpServer server;
+        private final ExecutorService pool = Executors.newFixedThreadPool(16);
+
+        FakeDav() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext(PREFIX, this::handle);
+            server.setExecutor(pool);
+            server.start();
+        }
+
+        int port() { return server.getAddress().getPort(); }
+
+        void stop() {
+            server.stop(0);
+            pool.shutdownNow();
+        }
+
+        private void handle(HttpExchange ex) throws IOException {
+            try {
+                requests.incrementAndGet();
+                ports.add(ex.getRemoteAddress().getPort());
+                byte[] body = readAll(ex.getRequestBody());
+                if (latencyMs > 0) Thread.sleep(latencyMs);
+
+                String auth = ex.getRequestHeaders().getFirst("Authorization");
+                if (auth != null) {
+                    if (!GOOD_AUTH.equals(auth)) {
+                        authBad.incrementAndGet();
+                        ex.sendResponseHeaders(401, -1);
+                        return;
+                    }
+                    authOk.incrementAndGet();
+                }
+
+                String path = ex.getRequestURI().getRawPath();
+                String name = URLDecoder.decode(path.substring(PREFIX.length()), "UTF-8");
+                switch (ex.getRequestMethod()) {
+                    case "PROPFIND": propfind(ex, name); break;
+                    case "PUT": put(ex, name, body); break;
+                    case "MOVE": move(ex, name); break;
+                    case "DELETE": ex.sendResponseHeaders(files.remove(name) != null ? 204 : 404, -1); break;
+                    default: ex.sendResponseHeaders(405, -1);
+                }
+            } catch (InterruptedException e) {
+                ex.sendResponseHeaders(500, -1);
+            } finally {
+                ex.close();
+            }
+        }
+
+        private void propfind(HttpExchange ex, String name) throws IOException {
+            StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\">");
+            if (name.isEmpty()) {
+                sb.append("<D:response><D:href>").append(PREFIX).append("</D:href><D:propstat><D:prop>")
+                        .append("<D:resourcetype><D:collection/></D:resourcetype></D:prop></D:propstat></D:response>");
+                if ("1".equals(ex.getRequestHeaders().getFirst("Depth"))) {
+                    for (Map.Entry<String, byte[]> e : files.entrySet()) entry(sb, e.getKey(), e.getValue().length);
+                }
+            } else {
+                byte[] f = files.get(name);
+                if (f == null) {
+                    ex.sendResponseHeaders(404, -1);
+                    return;
+                }
+                entry(sb, name, f.length);
+            }
+            byte[] out = sb.append("</D:multistatus>").toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+            ex.sendResponseHeaders(207, out.length);
+            ex.getResponseBody().write(out);
+        }
+
+        private static void entry(StringBuilder sb, String name, long size) {
+            String href = PREFIX + URI.create("x:/" + name.replace(" ", "%20")).getRawPath().substring(1);
+            sb.append("<D:response><D:href>").append(href).append("</D:href><D:propstat><D:prop><D:resourcetype/>")
+                    .append("<D:getcontentlength>").append(size).append("</D:getcontentlength>")
+                    .append("</D:prop></D:propstat></D:response>");
+        }
+
+        private void put(HttpExchange ex, String name, byte[] body) throws IOException {
+            if (body.length == 0) creates.incrementAndGet();
+            if ("*".equals(ex.getRequestHeaders().getFirst("If-None-Match")) && files.containsKey(name)) {
+                ex.sendResponseHeaders(412, -1);
+                return;
+            }
+            if (body.length == 0 && name.equals(dropCreateOf)) {
+                dropCreateOf = null;
+                files.put(name, body);
+                throw new IOException("ответ потерян"); // HttpServer закроет соединение, не ответив
+            }
+            bytesPut.addAndGet(body.length);
+            if (body.length > 0 && failPutNumber > 0 && puts.incrementAndGet() == failPutNumber) {
+                ex.sendResponseHeaders(failPutCode, -1);
+                return;
+            }
+            String range = ex.getRequestHeaders().getFirst("Content-Range");
+            if (body.length > 0) {
+                ranges.computeIfAbsent(name, k -> Collections.synchronizedList(new ArrayList<>())).add(range);
+            }
+            synchronized (this) {
+                byte[] old = files.get(name);
+                byte[] next;
+                if (range == null) {
+                    next = body;
+                } else {
+                    long start = Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')));
+                    if (old == null || start != old.length) {
+                        ex.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    next = Arrays.copyOf(old, old.length + body.length);
+                    System.arraycopy(body, 0, next, old.length, body.length);
+                }
+                if (quotaBytes > 0 && used() - (old == null ? 0 : old.length) + next.length > quotaBytes) {
+                    ex.sendResponseHeaders(507, -1);
+                    return;
+                }
+                files.put(name, next);
+                ex.sendResponseHeaders(old == null ? 201 : 204, -1);
+            }
+        }
+
+        private void move(HttpExchange ex, String name) throws IOException {
+            String dest = URI.create(ex.getRequestHeaders().getFirst("Destination")).getPath();
+            String to = dest.substring(PREFIX.length());
+            synchronized (this) {
+                if ("F".equals(ex.getRequestHeaders().getFirst("Overwrite")) && files.containsKey(to)) {
+                    ex.sendResponseHeaders(412, -1);
+                    return;
+                }
+                byte[] f = files.remove(name);
+                if (f == null) {
+                    ex.sendResponseHeaders(404, -1);
+                    return;
+                }
+                files.put(to, f);
+            }
+            ex.sendResponseHeaders(201, -1);
+        }
+
+        private long used() {
+            long n = 0;
+            for (byte[] f : files.values()) n += f.length;
+            return n;
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+            return out.toByteArray();
+        }
+    }
+}
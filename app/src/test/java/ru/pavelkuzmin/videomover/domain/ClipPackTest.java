@@ -0,0 +1,311 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+import static org.junit.Assert.*;
+
+public class ClipPackTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("clippack").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] kids = dir.listFiles();
+        if (kids != null) for (File k : kids) //noinspection ResultOfMethodCallIgnored
+            k.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void roundTrip_indexGivesRandomAccessToEveryClip() throws Exception {
+        List<Clip> clips = Arrays.asList(
+                clip("VID_1.mp4", random(100_000, 1)),
+                clip("empty.mp4", new byte[0]),
+                clip("VID_2.mp4", random(ClipPack.BLOCK, 2)),
+                clip("VID_3.mp4", random(3 * 1024 * 1024 + 7, 3)));
+
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips", clips, null);
+
+        assertNull(String.valueOf(r.error), r.error);
+        assertEquals("clips.tar", r.name);
+        File pack = new File(dir, "clips.tar");
+        assertEquals(r.bytes, pack.length());
+        assertEquals(0, pack.length() % ClipPack.BLOCK);
+        assertFalse(new File(dir, "clips.tar" + FileCopier.PARTIAL_SUFFIX).exists());
+        try (InputStream in = new FileInputStream(pack)) {
+            assertEquals(r.sha256, HashUtil.sha256(in));
+        }
+
+        try (SeekableByteChannel ch = Files.newByteChannel(pack.toPath())) {
+            ClipPack.Reader reader = ClipPack.Reader.open(ch);
+            assertEquals(4, reader.entries().size());
+            // с конца к началу — порядок чтения не важен
+            for (int i = clips.size() - 1; i >= 0; i--) {
+                Clip c = clips.get(i);
+                ClipPack.Entry e = reader.find(c.name);
+                assertNotNull(c.name, e);
+                assertEquals(r.entries[i].sha256, e.sha256);
+                assertEquals(HashUtil.sha256(new ByteArrayInputStream(c.data)), e.sha256);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                reader.extract(e, out);
+                assertArrayEquals(c.name, c.data, out.toByteArray());
+            }
+            assertNotNull(reader.findBySha256(r.entries[3].sha256));
+        }
+    }
+
+    @Test
+    public void layout_isPlainUstar() throws Exception {
+        List<Clip> clips = Arrays.asList(clip("a.mp4", random(1000, 4)), clip("b.mp4", random(600, 5)));
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips", clips, null);
+
+        byte[] tar = Files.readAllBytes(new File(dir, r.name).toPath());
+        List<String> names = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            byte[] h = Arrays.copyOfRange(tar, pos, pos + ClipPack.BLOCK);
+            if (isZero(h)) break;
+            assertEquals("ustar", new String(h, 257, 5, StandardCharsets.US_ASCII));
+            assertEquals(storedChecksum(h), computedChecksum(h));
+            names.add(ClipPack.headerName(h));
+            // у роликов — дата съёмки, а не 1970-01-01
+            long mtime = Long.parseLong(new String(h, 136, 11, StandardCharsets.US_ASCII), 8);
+            if (!ClipPack.INDEX_NAME.equals(ClipPack.headerName(h))) assertEquals(1_700_000_000L, mtime);
+            long size = ClipPack.headerSize(h);
+            pos += ClipPack.BLOCK + (int) ((size + ClipPack.BLOCK - 1) / ClipPack.BLOCK * ClipPack.BLOCK);
+        }
+        assertEquals(Arrays.asList("a.mp4", "b.mp4", ClipPack.INDEX_NAME), names);
+        // конец архива — два нулевых блока
+        assertEquals(tar.length, pos + 2 * ClipPack.BLOCK);
+        assertTrue(isZero(Arrays.copyOfRange(tar, pos, tar.length)));
+        assertArrayEquals(Arrays.copyOfRange(tar, ClipPack.BLOCK, ClipPack.BLOCK + 1000), clips.get(0).data);
+    }
+
+    @Test
+    public void badSources_skipped_restOfPackIntact() throws Exception {
+        byte[] ok1 = random(5000, 6);
+        byte[] ok2 = random(7000, 7);
+        List<Clip> clips = Arrays.asList(
+                clip("ok1.mp4", ok1),
+                new Clip("short.mp4", random(800, 8), 1000),          // исходник короче заявленного
+                new Clip("long.mp4", random(1200, 9), 1000),          // длиннее
+                new Clip("gone.mp4", null, 10),                       // пропал
+                new Clip("broken.mp4", random(4000, 10), 4000, 1500), // сбой чтения на середине
+                clip("ok2.mp4", ok2));
+
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips", clips, null);
+
+        assertNull(r.error);
+        assertNotNull(r.entries[0]);
+        assertNotNull(r.entries[5]);
+        assertEquals(RetryPolicy.SOURCE_CHANGED, RetryPolicy.classify(r.errors[1]));
+        assertEquals(RetryPolicy.SOURCE_CHANGED, RetryPolicy.classify(r.errors[2]));
+        assertEquals(RetryPolicy.SOURCE_CHANGED, RetryPolicy.classify(r.errors[3]));
+        assertEquals(RetryPolicy.TRANSIENT, RetryPolicy.classify(r.errors[4]));
+        for (int i = 1; i <= 4; i++) assertNull(r.entries[i]);
+
+        try (SeekableByteChannel ch = Files.newByteChannel(new File(dir, r.name).toPath())) {
+            ClipPack.Reader reader = ClipPack.Reader.open(ch);
+            assertEquals(2, reader.entries().size());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reader.extract(reader.find("ok2.mp4"), out);
+            assertArrayEquals(ok2, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void duplicateAndLongNames_madeUniqueWithin100Bytes() throws Exception {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 60; i++) longName.append('ж'); // 120 байт в UTF-8
+        List<Clip> clips = Arrays.asList(
+                clip("VID.mp4", random(10, 11)),
+                clip("VID.mp4", random(10, 12)),
+                clip(longName + ".mp4", random(10, 13)));
+
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips", clips, null);
+
+        assertEquals("VID.mp4", r.entries[0].name);
+        assertEquals("VID (1).mp4", r.entries[1].name);
+        assertTrue(r.entries[2].name.endsWith(" (1).mp4"));
+        assertTrue(r.entries[2].name.getBytes(StandardCharsets.UTF_8).length <= 100);
+    }
+
+    @Test
+    public void longEmojiName_trimmedByCodePoint() throws Exception {
+        // "a" + 🎬×30: 🎬 — 4 байта UTF-8 и суррогатная пара в String; с нечётным началом граница 100 байт
+        // приходится на середину пары
+        StringBuilder emoji = new StringBuilder("a");
+        for (int i = 0; i < 30; i++) emoji.append("\uD83C\uDFAC");
+        List<Clip> clips = Arrays.asList(clip(emoji + ".mp4", random(10, 14)), clip(emoji + ".mp4", random(10, 15)));
+
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips", clips, null);
+
+        for (ClipPack.Entry e : r.entries) {
+            assertTrue(e.name, e.name.endsWith(" (1).mp4") || e.name.endsWith(" (2).mp4"));
+            assertTrue(e.name.getBytes(StandardCharsets.UTF_8).length <= 100);
+            // ни одного «осиротевшего» суррогата — имя переживает UTF-8 без замены на '?'
+            assertEquals(e.name, new String(e.name.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        }
+        try (SeekableByteChannel ch = Files.newByteChannel(new File(dir, r.name).toPath())) {
+            assertNotNull(ClipPack.Reader.open(ch).find(r.entries[1].name));
+        }
+    }
+
+    @Test
+    public void threeProviderCallsForWholePack() throws Exception {
+        SimulatedDest dest = new SimulatedDest(new FakeClock(), "clips.tar");
+        List<Clip> clips = new ArrayList<>();
+        for (int i = 0; i < 200; i++) clips.add(clip("VID_" + i + ".mp4", random(2000, 100 + i)));
+
+        ClipPack.Result r = ClipPack.write(dest, "clips", clips, null);
+
+        assertEquals("clips (1).tar", r.name);
+        assertEquals(1, dest.creates);
+        assertEquals(1, dest.openOutputs);
+        assertEquals(1, dest.renames);
+        assertEquals(r.sha256, dest.files().get("clips (1).tar").sha256);
+    }
+
+    @Test
+    public void destinationFailure_dropsPartialPack() throws Exception {
+        SimulatedDest dest = new SimulatedDest(new FakeClock());
+        dest.breakEveryWrite = 1;
+        dest.maxBreaks = 1;
+        List<Clip> clips = Arrays.asList(clip("a.mp4", random(300_000, 20)), clip("b.mp4", random(300_000, 21)));
+
+        ClipPack.Result r = ClipPack.write(dest, "clips", clips, null);
+
+        assertNull(r.name);
+        assertNotNull(r.error);
+        assertTrue(dest.files().isEmpty());
+        // имя освобождено — следующая попытка получит то же
+        assertEquals("clips.tar", dest.reserveUniqueName("clips", ClipPack.EXTENSION));
+    }
+
+    @Test
+    public void corruptedByte_detectedOnExtract() throws Exception {
+        byte[] data = random(20_000, 30);
+        ClipPack.Result r = ClipPack.write(new LocalDestStorage(dir), "clips",
+                Arrays.asList(clip("a.mp4", data)), null);
+        File pack = new File(dir, r.name);
+        try (RandomAccessFile raf = new RandomAccessFile(pack, "rw")) {
+            raf.seek(r.entries[0].offset + 12_345);
+            raf.write(data[12_345] ^ 0x40);
+        }
+
+        try (SeekableByteChannel ch = Files.newByteChannel(pack.toPath())) {
+            ClipPack.Reader reader = ClipPack.Reader.open(ch);
+            reader.extract(reader.find("a.mp4"), new ByteArrayOutputStream());
+            fail("ожидали несовпадение SHA-256");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("SHA-256"));
+        }
+    }
+
+    @Test
+    public void notAPack_rejected() throws Exception {
+        File f = new File(dir, "x.tar");
+        Files.write(f.toPath(), random(4096, 40));
+        try (SeekableByteChannel ch = Files.newByteChannel(f.toPath())) {
+            ClipPack.Reader.open(ch);
+            fail("ожидали IOException");
+        } catch (IOException expected) {
+            // нет строки VMPACK в конце
+        }
+    }
+
+    private static Clip clip(String name, byte[] data) {
+        return new Clip(name, data, data.length);
+    }
+
+    /** Ролик в памяти: заявленный размер может не совпадать с данными, data == null — файла нет. */
+    private static class Clip implements ClipPack.Clip {
+        final String name;
+        final byte[] data;
+        final long size;
+        final int failAt;
+
+        Clip(String name, byte[] data, long size) {
+            this(name, data, size, -1);
+        }
+
+        Clip(String name, byte[] data, long size, int failAt) {
+            this.name = name;
+            this.data = data;
+            this.size = size;
+            this.failAt = failAt;
+        }
+
+        @Override public String name() { return name; }
+        @Override public long size() { return size; }
+        @Override public long mtimeMillis() { return 1_700_000_000_000L; }
+
+        @Override public InputStream open() throws IOException {
+            if (data == null) throw new FileNotFoundException(name);
+            if (failAt < 0) return new ByteArrayInputStream(data);
+            return new InputStream() {
+                private int pos;
+
+                @Override public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    if (pos >= failAt) throw new IOException("EIO");
+                    int n = Math.min(len, failAt - pos);
+                    System.arraycopy(data, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            };
+        }
+    }
+
+    private static boolean isZero(byte[] b) {
+        for (byte x : b) if (x != 0) return false;
+        return true;
+    }
+
+    private static long storedChecksum(byte[] h) {
+        return Long.parseLong(new String(h, 148, 6, StandardCharsets.US_ASCII), 8);
+    }
+
+    private static long computedChecksum(byte[] h) {
+        long sum = 0;
+        for (int i = 0; i < h.length; i++) sum += (i >= 148 && i < 156) ? ' ' : h[i] & 0xFF;
+        return sum;
+    }
+
+    private static byte[] random(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+}
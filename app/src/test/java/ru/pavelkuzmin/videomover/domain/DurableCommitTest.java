@@ -0,0 +1,81 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DurableCommitTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final FakeClock clock = new FakeClock();
+    private final List<Integer> synced = new ArrayList<>();
+    private final List<Integer> durable = new ArrayList<>();
+    private final List<Integer> failed = new ArrayList<>();
+
+    private DurableCommit<Integer> commit(String mode) {
+        return DurableCommit.forMode(mode, id -> {
+            clock.sleepNanos(20 * MS);
+            if (id < 0) throw new IOException("EIO");
+            synced.add(id);
+        }, new DurableCommit.Listener<Integer>() {
+            @Override public void onDurable(Integer id) { durable.add(id); }
+            @Override public void onSyncFailed(Integer id, IOException e) { failed.add(id); }
+        }, clock);
+    }
+
+    @Test
+    public void none_releasesImmediatelyWithoutSync() {
+        DurableCommit<Integer> c = commit(DurableCommit.MODE_NONE);
+        c.add(1, 100);
+        c.add(2, 100);
+        assertEquals(List.of(1, 2), durable);
+        assertTrue(synced.isEmpty());
+        assertEquals(0, c.syncNanos());
+    }
+
+    @Test
+    public void perFile_syncsBeforeRelease() {
+        DurableCommit<Integer> c = commit(DurableCommit.MODE_PER_FILE);
+        c.add(1, 100);
+        assertEquals(List.of(1), synced);
+        assertEquals(List.of(1), durable);
+        assertEquals(1, c.syncCount());
+        assertEquals(20 * MS, c.syncNanos());
+    }
+
+    @Test
+    public void group_holdsSourcesUntilBatchIsSynced() {
+        DurableCommit<Integer> c = commit(DurableCommit.MODE_GROUP);
+        for (int i = 0; i < DurableCommit.GROUP_FILES - 1; i++) c.add(i, 1024);
+        assertTrue(durable.isEmpty()); // ничего не удаляем, пока пачка не на диске
+        c.add(99, 1024);
+        assertEquals(DurableCommit.GROUP_FILES, durable.size());
+        c.add(100, 1024);
+        c.flush();
+        assertEquals(DurableCommit.GROUP_FILES + 1, durable.size());
+        assertEquals((DurableCommit.GROUP_FILES + 1) * 20 * MS, c.syncNanos());
+    }
+
+    @Test
+    public void group_largeFileClosesBatchEarly() {
+        DurableCommit<Integer> c = commit(DurableCommit.MODE_GROUP);
+        c.add(1, 10);
+        c.add(2, DurableCommit.GROUP_BYTES);
+        assertEquals(List.of(1, 2), durable);
+    }
+
+    @Test
+    public void failedSync_keepsSource() {
+        DurableCommit<Integer> c = commit(DurableCommit.MODE_GROUP);
+        c.add(1, 10);
+        c.add(-2, 10);
+        c.flush();
+        assertEquals(List.of(1), durable);
+        assertEquals(List.of(-2), failed);
+    }
+}
@@ -0,0 +1,16 @@
+package ru.pavelkuzmin.videomover.domain;
+
+/** Часы для тестов: sleep мгновенно сдвигает время вперёд. */
+class FakeClock implements RateLimiter.Clock {
+    long now;
+    long slept;
+
+    @Override public long nanoTime() { return now; }
+
+    @Override public void sleepNanos(long nanos) {
+        now += nanos;
+        slept += nanos;
+    }
+
+    void advanceMillis(long ms) { now += ms * 1_000_000L; }
+}
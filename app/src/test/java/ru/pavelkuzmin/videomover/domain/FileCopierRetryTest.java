@@ -0,0 +1,386 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Повторы копирования на сбойных потоках: обрыв записи посреди файла с «отключением» устройства,
+ * обрыв чтения источника, источник, который ещё дописывается. Всё в виртуальном времени.
+ * Путь через MediaProcessor (как у SAF) проверяется скриптованной стадией поверх SimulatedDest.
+ */
+public class FileCopierRetryTest {
+
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long SEC = 1_000_000_000L;
+
+    @Test
+    public void classify_splitsTransientPermanentAndSourceChanged() {
+        assertEquals(RetryPolicy.TRANSIENT, RetryPolicy.classify(new IOException("EIO")));
+        assertEquals(RetryPolicy.TRANSIENT, RetryPolicy.classify(new SocketTimeoutException()));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new NoSpaceException(1)));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new SecurityException()));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new InterruptedIOException()));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new InterruptedException()));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new IllegalStateException()));
+        assertEquals(RetryPolicy.SOURCE_CHANGED, RetryPolicy.classify(new SourceChangedException("x")));
+        assertEquals(RetryPolicy.SOURCE_CHANGED,
+                RetryPolicy.classify(new IOException(new SourceChangedException("x"))));
+        assertEquals(RetryPolicy.PERMANENT, RetryPolicy.classify(new IOException(new NoSpaceException(1))));
+        assertTrue(RetryPolicy.isNoSpace(new IOException("write failed", new NoSpaceException(1))));
+        assertFalse(RetryPolicy.isNoSpace(new IOException("EIO")));
+    }
+
+    @Test
+    public void backoff_growsExponentiallyUpToCap() {
+        RetryPolicy p = new RetryPolicy(10, 0, 500_000_000L, 4 * SEC, new FakeClock());
+        assertEquals(500_000_000L, p.delayNanos(1));
+        assertEquals(1 * SEC, p.delayNanos(2));
+        assertEquals(2 * SEC, p.delayNanos(3));
+        assertEquals(4 * SEC, p.delayNanos(4));
+        assertEquals(4 * SEC, p.delayNanos(40));
+        assertFalse(p.shouldRetry(new IOException(), 10));
+        assertFalse(p.shouldRetry(new NoSpaceException(1), 1));
+        assertTrue(p.shouldRetry(new IOException(), 9));
+    }
+
+    @Test
+    public void brokenWrites_resumeFromDurableOffset() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 40, 3 * MB, 6 * MB, 11);
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.resumable = true;
+        dest.breakEveryWrite = 3;
+        dest.outageNanos = SEC; // кабель «моргнул» на секунду
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock, RetryPolicy.standard(clock));
+
+        assertEquals(40, r.ok);
+        for (int i = 0; i < 40; i++) {
+            SourceCatalog.Item it = src.list().get(i);
+            assertEquals(src.expectedSha256(it), dest.files().get(r.results.get(i).finalName).sha256);
+            assertEquals(it.size, dest.files().get(r.results.get(i).finalName).size);
+        }
+        assertTrue(dest.resumes > 5);
+        // ни один байт не записан дважды: продолжали ровно с того места, где оборвалось
+        assertEquals(r.bytes, dest.bytesWritten);
+        assertTrue(clock.slept >= dest.resumes * SEC);
+        for (String name : dest.files().keySet()) assertFalse(name, name.endsWith(FileCopier.PARTIAL_SUFFIX));
+    }
+
+    @Test
+    public void nonResumableDest_retriesFromZero() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 20, 2 * MB, 3 * MB, 12);
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.breakEveryWrite = 4;
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock, RetryPolicy.standard(clock));
+
+        assertEquals(20, r.ok);
+        assertEquals(0, dest.resumes);
+        assertTrue(dest.bytesWritten > r.bytes);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(src.expectedSha256(src.list().get(i)),
+                    dest.files().get(r.results.get(i).finalName).sha256);
+        }
+    }
+
+    @Test
+    public void brokenSourceReads_retried() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 30, 2 * MB, 4 * MB, 13);
+        src.breakEveryOpen = 4;
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.resumable = true;
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock, RetryPolicy.standard(clock));
+
+        assertEquals(30, r.ok);
+        assertTrue(src.opens > 30);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(src.expectedSha256(src.list().get(i)),
+                    dest.files().get(r.results.get(i).finalName).sha256);
+        }
+    }
+
+    @Test
+    public void changedSource_failsWithoutRetry() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 10, 100 * KB, 500 * KB, 14);
+        src.grown.add(3L);
+        src.grown.add(7L);
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.resumable = true;
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock, RetryPolicy.standard(clock));
+
+        assertEquals(8, r.ok);
+        assertEquals(2, r.fail);
+        assertEquals(RetryPolicy.SOURCE_CHANGED, r.results.get(3).errorKind);
+        assertEquals(RetryPolicy.SOURCE_CHANGED, r.results.get(7).errorKind);
+        assertFalse(r.results.get(3).retryable());
+        assertEquals(10, src.opens);  // ни повторов на месте, ни в конце сессии
+        assertEquals(0, clock.slept);
+        assertEquals(8, dest.files().size());
+    }
+
+    @Test
+    public void permanentError_notRetried() throws Exception {
+        FakeClock clock = new FakeClock();
+        SimulatedDest dest = new SimulatedDest(clock);
+        int[] opens = { 0 };
+
+        FileCopier.Result r = FileCopier.copy(() -> {
+            opens[0]++;
+            throw new SecurityException("нет доступа");
+        }, "a.mp4", 10, dest, null, RetryPolicy.standard(clock));
+
+        assertFalse(r.ok);
+        assertEquals(RetryPolicy.PERMANENT, r.errorKind);
+        assertEquals(1, opens[0]);
+        assertTrue(dest.files().isEmpty());
+    }
+
+    @Test
+    public void missingSource_isSourceChanged() {
+        FakeClock clock = new FakeClock();
+        SimulatedDest dest = new SimulatedDest(clock);
+
+        FileCopier.Result r = FileCopier.copy(() -> {
+            throw new java.io.FileNotFoundException("VID_1.mp4");
+        }, "VID_1.mp4", 10, dest, null, RetryPolicy.standard(clock));
+
+        assertEquals(RetryPolicy.SOURCE_CHANGED, r.errorKind);
+        assertEquals(0, clock.slept);
+    }
+
+    @Test
+    public void longOutage_failuresRequeuedAtSessionEnd() throws Exception {
+        // 3 попытки с паузами 0,5 + 1 с не переждут 20-секундное отключение — спасает проход в конце сессии
+        for (int rounds : new int[] { 0, 1 }) {
+            FakeClock clock = new FakeClock();
+            SyntheticCatalog src = new SyntheticCatalog(clock, 30, 2 * MB, 3 * MB, 15);
+            SimulatedDest dest = new SimulatedDest(clock);
+            dest.resumable = true;
+            dest.breakEveryWrite = 10;
+            dest.maxBreaks = 1;
+            dest.outageNanos = 20 * SEC;
+            RetryPolicy retry = new RetryPolicy(3, rounds, 500_000_000L, 30 * SEC, clock);
+
+            TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock, retry);
+
+            if (rounds == 0) {
+                assertTrue(r.fail > 0);
+                for (FileCopier.Result res : r.results) if (!res.ok) assertTrue(res.retryable());
+            } else {
+                assertEquals(30, r.ok);
+                for (int i = 0; i < 30; i++) {
+                    assertEquals(src.expectedSha256(src.list().get(i)),
+                            dest.files().get(r.results.get(i).finalName).sha256);
+                }
+            }
+            for (String name : dest.files().keySet()) assertFalse(name, name.endsWith(FileCopier.PARTIAL_SUFFIX));
+        }
+    }
+
+    @Test
+    public void noPolicy_singleAttempt() {
+        FakeClock clock = new FakeClock();
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.breakEveryWrite = 1;
+        byte[] data = new byte[(int) (2 * MB)];
+
+        FileCopier.Result r = FileCopier.copy(() -> new ByteArrayInputStream(data), "a.mp4", data.length, dest, null);
+
+        assertFalse(r.ok);
+        assertTrue(r.retryable());
+        assertEquals(1, dest.openOutputs);
+    }
+
+    @Test
+    public void processorFailure_resumesFromReportedOffset() {
+        FakeClock clock = new FakeClock();
+        ProcessorSimDest dest = new ProcessorSimDest(clock);
+        byte[] data = randomBytes(5 * (int) MB, 21);
+        ScriptedProcessor p = new ScriptedProcessor(dest, data, true);
+        p.failures.add(new IOException("EIO")); // оборвалось после первых 2 МБ
+        p.failAfter = 2 * MB;
+
+        FileCopier.Result r = FileCopier.copyWithSha256(null, null, "a.mp4", data.length, dest, null, p,
+                RetryPolicy.standard(clock));
+
+        assertTrue(r.error, r.ok);
+        assertEquals(Arrays.asList("process", "resume@" + 2 * MB), p.calls);
+        assertEquals(sha256(data), r.sha256);
+        assertEquals(sha256(data), dest.files().get("a.mp4").sha256);
+        assertEquals(data.length, dest.bytesWritten); // продолжили с отчёта, ничего не переписано
+    }
+
+    @Test
+    public void processorSourceGone_notRetried() {
+        FakeClock clock = new FakeClock();
+        ProcessorSimDest dest = new ProcessorSimDest(clock);
+        ScriptedProcessor p = new ScriptedProcessor(dest, new byte[10], true);
+        p.failures.add(new SourceChangedException("Исходник пропал: VID_1.mp4"));
+
+        FileCopier.Result r = FileCopier.copyWithSha256(null, null, "VID_1.mp4", 10, dest, null, p,
+                RetryPolicy.standard(clock));
+
+        assertEquals(RetryPolicy.SOURCE_CHANGED, r.errorKind);
+        assertFalse(r.retryable());
+        assertEquals(1, p.calls.size());
+        assertEquals(0, clock.slept);
+        assertTrue(dest.files().isEmpty());
+    }
+
+    @Test
+    public void processorNoSpaceMidWrite_stopsWithoutRetry() {
+        FakeClock clock = new FakeClock();
+        ProcessorSimDest dest = new ProcessorSimDest(clock);
+        ScriptedProcessor p = new ScriptedProcessor(dest, new byte[(int) MB], true);
+        p.failures.add(new IOException("write failed", new NoSpaceException(MB)));
+
+        FileCopier.Result r = FileCopier.copyWithSha256(null, null, "a.mp4", MB, dest, null, p,
+                RetryPolicy.standard(clock));
+
+        assertFalse(r.ok);
+        assertTrue(r.noSpace);
+        assertEquals(RetryPolicy.PERMANENT, r.errorKind);
+        assertEquals(1, p.calls.size());
+        assertTrue(dest.files().isEmpty());
+    }
+
+    @Test
+    public void transformingProcessor_retriesFromZero() {
+        FakeClock clock = new FakeClock();
+        ProcessorSimDest dest = new ProcessorSimDest(clock);
+        byte[] data = randomBytes(3 * (int) MB, 22);
+        ScriptedProcessor p = new ScriptedProcessor(dest, data, false);
+        p.failures.add(new IOException("EIO"));
+        p.failAfter = MB;
+
+        FileCopier.Result r = FileCopier.copyWithSha256(null, null, "a.mp4", 0, dest, null, p,
+                RetryPolicy.standard(clock));
+
+        assertTrue(r.error, r.ok);
+        assertEquals(Arrays.asList("process", "process"), p.calls);
+        assertEquals(sha256(data), dest.files().get("a.mp4").sha256);
+    }
+
+    private static byte[] randomBytes(int len, long seed) {
+        byte[] b = new byte[len];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HashUtil.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** SimulatedDest с интерфейсом SAF-назначения: Uri на JVM не построить, поэтому стадия пишет по имени. */
+    private static class ProcessorSimDest extends SimulatedDest implements ProcessorDest {
+        private final Map<String, Long> written = new HashMap<>();
+        String lastName;
+
+        ProcessorSimDest(FakeClock clock) {
+            super(clock);
+            resumable = true;
+        }
+
+        @Override public Uri uriOf(String name) {
+            lastName = name;
+            return null;
+        }
+
+        @Override public void setWritten(String name, long length) {
+            if (length < 0) written.remove(name);
+            else written.put(name, length);
+        }
+
+        @Override public long resumableLength(String name) throws IOException {
+            Long reported = written.get(name);
+            return reported == null ? 0 : Math.min(reported, super.resumableLength(name));
+        }
+    }
+
+    /** Стадия, которая по сценарию обрывается: пишет failAfter байт, отчитывается и бросает очередную ошибку. */
+    private static class ScriptedProcessor implements MediaProcessor {
+        private final ProcessorSimDest dest;
+        private final byte[] data;
+        private final boolean preservesBytes;
+        final List<Exception> failures = new ArrayList<>();
+        final List<String> calls = new ArrayList<>();
+        long failAfter;
+
+        ScriptedProcessor(ProcessorSimDest dest, byte[] data, boolean preservesBytes) {
+            this.dest = dest;
+            this.data = data;
+            this.preservesBytes = preservesBytes;
+        }
+
+        @Override
+        public long process(Context ctx, Uri src, Uri d, RateLimiter limiter, MessageDigest md) throws Exception {
+            return process(ctx, src, d, limiter, md, len -> {});
+        }
+
+        @Override
+        public long process(Context ctx, Uri src, Uri d, RateLimiter limiter, MessageDigest md,
+                            LongConsumer written) throws Exception {
+            calls.add("process");
+            try (OutputStream out = dest.openOutput(dest.lastName)) {
+                return write(out, 0, md, written);
+            }
+        }
+
+        @Override
+        public long resume(Context ctx, Uri src, Uri d, long offset, RateLimiter limiter, MessageDigest md,
+                           LongConsumer written) throws Exception {
+            calls.add("resume@" + offset);
+            md.update(data, 0, (int) offset);
+            try (OutputStream out = dest.openOutput(dest.lastName, offset)) {
+                return write(out, offset, md, written);
+            }
+        }
+
+        private long write(OutputStream out, long offset, MessageDigest md, LongConsumer written) throws Exception {
+            if (!failures.isEmpty()) {
+                long n = Math.max(0, failAfter - offset);
+                out.write(data, (int) offset, (int) n);
+                written.accept(offset + n);
+                throw failures.remove(0);
+            }
+            md.update(data, (int) offset, data.length - (int) offset);
+            out.write(data, (int) offset, data.length - (int) offset);
+            return data.length;
+        }
+
+        @Override public boolean preservesBytes() {
+            return preservesBytes;
+        }
+    }
+}
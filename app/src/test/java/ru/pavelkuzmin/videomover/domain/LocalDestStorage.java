@@ -0,0 +1,59 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+/** DestStorage поверх обычной папки (java.io.File) — для JVM-тестов. */
+class LocalDestStorage implements DestStorage {
+    private final File dir;
+    private final UniqueNames names;
+
+    public LocalDestStorage(File dir) {
+        this.dir = dir;
+        String[] list = dir.list();
+        this.names = new UniqueNames(list == null ? Collections.emptyList() : Arrays.asList(list));
+    }
+
+    @Override public String reserveUniqueName(String base, String ext) { return names.reserve(base, ext); }
+
+    @Override public void release(String name) { names.release(name); }
+
+    @Override public void create(String name) throws IOException {
+        if (!new File(dir, name).createNewFile()) throw new IOException("Файл уже существует: " + name);
+        names.taken(name);
+    }
+
+    @Override public OutputStream openOutput(String name) throws IOException {
+        return new FileOutputStream(new File(dir, name));
+    }
+
+    @Override public long resumableLength(String name) {
+        return new File(dir, name).length();
+    }
+
+    @Override public OutputStream openOutput(String name, long offset) throws IOException {
+        FileChannel ch = FileChannel.open(new File(dir, name).toPath(), StandardOpenOption.WRITE);
+        ch.truncate(offset);
+        ch.position(offset);
+        return Channels.newOutputStream(ch);
+    }
+
+    @Override public void rename(String from, String to) throws IOException {
+        if (!new File(dir, from).renameTo(new File(dir, to))) throw new IOException("Не удалось переименовать " + from);
+        names.freed(from);
+        names.taken(to);
+    }
+
+    @Override public void delete(String name) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(dir, name).delete();
+        names.freed(name);
+    }
+}
@@ -0,0 +1,31 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Ролики из обычной папки (по имени) — для JVM-тестов. */
+class LocalSourceCatalog implements SourceCatalog {
+    private final File dir;
+
+    public LocalSourceCatalog(File dir) {
+        this.dir = dir;
+    }
+
+    @Override public List<Item> list() throws IOException {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) throw new IOException("Нет доступа к " + dir);
+        Arrays.sort(files);
+        List<Item> out = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) out.add(new Item(i, files[i].getName(), files[i].length()));
+        return out;
+    }
+
+    @Override public InputStream open(Item item) throws IOException {
+        return new FileInputStream(new File(dir, item.name));
+    }
+}
@@ -0,0 +1,53 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void unlimited_neverSleeps() throws Exception {
+        FakeClock clock = new FakeClock();
+        RateLimiter rl = new RateLimiter(clock, 0);
+        for (int i = 0; i < 100; i++) rl.acquire(MB);
+        assertEquals(0, clock.slept);
+    }
+
+    @Test
+    public void sustainedRate_matchesCap() throws Exception {
+        FakeClock clock = new FakeClock();
+        RateLimiter rl = new RateLimiter(clock, 4 * MB);
+        for (int i = 0; i < 40; i++) rl.acquire(MB); // 40 МБ при 4 МБ/с
+        double seconds = clock.now / 1e9;
+        // стартовый запас — 1 МБ (четверть секунды), остальное строго по лимиту
+        assertEquals(9.75, seconds, 0.01);
+    }
+
+    @Test
+    public void idleTime_refillsOnlyUpToBurst() throws Exception {
+        FakeClock clock = new FakeClock();
+        RateLimiter rl = new RateLimiter(clock, 4 * MB);
+        rl.acquire(MB);
+        clock.advanceMillis(60_000); // минута простоя не даёт «накопить» минуту трафика
+        long before = clock.slept;
+        rl.acquire(MB);
+        assertEquals(before, clock.slept);
+        rl.acquire(MB);
+        assertEquals(before + 250_000_000L, clock.slept);
+    }
+
+    @Test
+    public void setRate_appliesToNextAcquire() throws Exception {
+        FakeClock clock = new FakeClock();
+        RateLimiter rl = new RateLimiter(clock, 4 * MB);
+        rl.acquire(MB); // стартовый запас
+        rl.setRate(MB);
+        long before = clock.slept;
+        rl.acquire(MB);
+        assertEquals(1_000_000_000L, clock.slept - before);
+        assertEquals(MB, rl.getRate());
+    }
+}
@@ -0,0 +1,151 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RemuxEngineTest {
+
+    /** Заглушка MediaExtractor: сэмплы лежат в списке в порядке «контейнера». */
+    static class FakeSource implements RemuxEngine.SampleSource {
+        final String[] mimes;
+        final List<long[]> samples = new ArrayList<>(); // {track, size, timeUs, flags}
+        final List<Integer> selected = new ArrayList<>();
+        int pos;
+
+        FakeSource(String... mimes) { this.mimes = mimes; }
+
+        FakeSource sample(int track, int size, long timeUs, int flags) {
+            samples.add(new long[] { track, size, timeUs, flags });
+            return this;
+        }
+
+        @Override public int trackCount() { return mimes.length; }
+        @Override public String trackMime(int track) { return mimes[track]; }
+        @Override public Object trackFormat(int track) { return "fmt:" + mimes[track]; }
+        @Override public int maxSampleSize() {
+            int max = 0;
+            for (long[] smp : samples) max = Math.max(max, (int) smp[1]);
+            return max;
+        }
+        @Override public void selectTrack(int track) { selected.add(track); }
+        @Override public int readSample(ByteBuffer buf) {
+            if (pos >= samples.size()) return -1;
+            int size = (int) samples.get(pos)[1];
+            for (int i = 0; i < size; i++) buf.put(i, (byte) pos);
+            return size;
+        }
+        @Override public int sampleTrack() { return (int) samples.get(pos)[0]; }
+        @Override public long sampleTimeUs() { return samples.get(pos)[2]; }
+        @Override public int sampleFlags() { return (int) samples.get(pos)[3]; }
+        @Override public boolean advance() { return ++pos < samples.size(); }
+    }
+
+    /** Заглушка MediaMuxer: запоминает дорожки и сэмплы. */
+    static class RecordingSink implements RemuxEngine.SampleSink {
+        final List<Object> formats = new ArrayList<>();
+        final List<long[]> written = new ArrayList<>(); // {track, size, timeUs, flags, firstByte}
+        boolean started, stopped;
+
+        @Override public int addTrack(Object format) {
+            assertFalse("addTrack после start", started);
+            formats.add(format);
+            return formats.size() - 1;
+        }
+        @Override public void start() { started = true; }
+        @Override public void writeSample(int track, ByteBuffer buf, int size, long timeUs, int flags) {
+            assertTrue(started);
+            written.add(new long[] { track, size, timeUs, flags, size > 0 ? buf.get(0) : -1 });
+        }
+        @Override public void stop() { stopped = true; }
+    }
+
+    @Test
+    public void copyEncoder_dropsNonAvTracksAndKeepsOrder() throws Exception {
+        FakeSource src = new FakeSource("video/avc", "application/meta", "audio/mp4a-latm")
+                .sample(0, 500, 0, RemuxEngine.FLAG_KEY_FRAME)
+                .sample(1, 40, 0, 0)
+                .sample(2, 100, 10, 0)
+                .sample(0, 300, 33_000, 0);
+        RecordingSink sink = new RecordingSink();
+
+        long bytes = RemuxEngine.run(src, sink, RemuxEngine.COPY_ENCODER, null);
+
+        assertEquals(900, bytes);
+        assertEquals(2, sink.formats.size());
+        assertEquals("fmt:video/avc", sink.formats.get(0));
+        assertEquals("fmt:audio/mp4a-latm", sink.formats.get(1));
+        assertEquals(3, sink.written.size());
+        // дорожки перенумерованы: audio 2 → 1
+        assertEquals(0, sink.written.get(0)[0]);
+        assertEquals(RemuxEngine.FLAG_KEY_FRAME, sink.written.get(0)[3]);
+        assertEquals(1, sink.written.get(1)[0]);
+        assertEquals(2, sink.written.get(1)[4]); // данные именно третьего сэмпла
+        assertEquals(33_000, sink.written.get(2)[2]);
+        assertTrue(sink.stopped);
+    }
+
+    @Test
+    public void pluggableEncoder_changesFormatAndPayload() throws Exception {
+        FakeSource src = new FakeSource("video/avc")
+                .sample(0, 1000, 0, RemuxEngine.FLAG_KEY_FRAME)
+                .sample(0, 800, 33_000, 0);
+        RecordingSink sink = new RecordingSink();
+        RemuxEngine.TrackEncoder halving = new RemuxEngine.TrackEncoder() {
+            @Override public Object outputFormat(String mime, Object in) { return "fmt:video/hevc"; }
+            @Override public void encode(int track, ByteBuffer in, int size, long timeUs, int flags, RemuxEngine.Emitter out) {
+                out.emit(track, in, size / 2, timeUs, flags);
+            }
+            @Override public void finish(RemuxEngine.Emitter out) {
+                out.emit(0, ByteBuffer.allocate(10), 10, 66_000, 0); // «хвост» кодировщика
+            }
+        };
+
+        long bytes = RemuxEngine.run(src, sink, halving, null);
+
+        assertEquals(500 + 400 + 10, bytes);
+        assertEquals("fmt:video/hevc", sink.formats.get(0));
+        assertEquals(3, sink.written.size());
+        assertEquals(66_000, sink.written.get(2)[2]);
+    }
+
+    @Test
+    public void limiter_isChargedForWrittenBytes() throws Exception {
+        FakeClock clock = new FakeClock();
+        RateLimiter limiter = new RateLimiter(clock, 1024 * 1024);
+        FakeSource src = new FakeSource("video/avc");
+        for (int i = 0; i < 8; i++) src.sample(0, 256 * 1024, i, 0);
+        // 2 МБ при 1 МБ/с минус стартовый запас 256 КБ
+        RemuxEngine.run(src, new RecordingSink(), RemuxEngine.COPY_ENCODER, limiter);
+        assertEquals(1.75, clock.slept / 1e9, 0.001);
+    }
+
+    @Test
+    public void noAvTracks_fails() throws Exception {
+        FakeSource src = new FakeSource("application/meta").sample(0, 10, 0, 0);
+        assertThrows(IllegalStateException.class,
+                () -> RemuxEngine.run(src, new RecordingSink(), RemuxEngine.COPY_ENCODER, null));
+    }
+
+    @Test
+    public void iso6709_parsedWithAndWithoutAltitude() {
+        assertArrayEquals(new float[] { 37.509f, -122.2706f }, RemuxEngine.parseIso6709("+37.5090-122.2706/"), 1e-4f);
+        assertArrayEquals(new float[] { -33.8688f, 151.2093f },
+                RemuxEngine.parseIso6709("-33.8688+151.2093+058.000/"), 1e-4f);
+        assertNull(RemuxEngine.parseIso6709(null));
+        assertNull(RemuxEngine.parseIso6709(""));
+        assertNull(RemuxEngine.parseIso6709("+95.0000+010.0000/"));
+    }
+
+    @Test
+    public void rotation_onlyRightAnglesReachMuxer() {
+        assertEquals(90, RemuxEngine.normalizeRotation(90));
+        assertEquals(270, RemuxEngine.normalizeRotation(-90));
+        assertEquals(180, RemuxEngine.normalizeRotation(540));
+        assertEquals(0, RemuxEngine.normalizeRotation(45));
+    }
+}
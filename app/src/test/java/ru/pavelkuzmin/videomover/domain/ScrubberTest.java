@@ -0,0 +1,118 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+import static org.junit.Assert.*;
+
+public class ScrubberTest {
+
+    private static final long MB = 1024 * 1024;
+
+    /** Архив в памяти: содержимое, записанные хэши и отчёт. */
+    private static class MemArchive implements Scrubber.Archive, Scrubber.Report {
+        final Map<String, byte[]> files = new HashMap<>();
+        final Map<String, String> sums = new HashMap<>();
+        final List<String> corrupt = new ArrayList<>();
+        final List<String> unreadable = new ArrayList<>();
+        String checkpoint = "";
+
+        void put(String name, int size) throws Exception {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) data[i] = (byte) (i * 7 + name.hashCode());
+            files.put(name, data);
+            sums.put(name, HashUtil.toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+        }
+
+        @Override public List<String> names() { return new ArrayList<>(files.keySet()); }
+        @Override public String expectedSha256(String name) { return sums.get(name); }
+        @Override public InputStream open(String name) throws IOException {
+            byte[] d = files.get(name);
+            if (d == null) throw new IOException("EIO");
+            return new ByteArrayInputStream(d);
+        }
+        @Override public void corrupt(String name, String expected, String actual) { corrupt.add(name); }
+        @Override public void unreadable(String name, String error) { unreadable.add(name); }
+        @Override public void checkpoint(String cursor) { checkpoint = cursor; }
+    }
+
+    @Test
+    public void fullPass_findsFlippedBit() throws Exception {
+        MemArchive a = new MemArchive();
+        for (int i = 0; i < 20; i++) a.put(String.format("VID_%02d.mp4", i), 4096);
+        a.files.get("VID_07.mp4")[100] ^= 1;
+        a.files.put("notes.txt", new byte[10]); // без хэша — не проверяем
+
+        Scrubber.Pass p = Scrubber.run(a, "", null, new FakeClock(), Long.MAX_VALUE, () -> false, a);
+
+        assertTrue(p.completed);
+        assertEquals("", p.cursor);
+        assertEquals(20, p.checked);
+        assertEquals(List.of("VID_07.mp4"), a.corrupt);
+    }
+
+    @Test
+    public void budget_splitsArchiveIntoSessionsThatResumeFromCursor() throws Exception {
+        MemArchive a = new MemArchive();
+        for (int i = 0; i < 1000; i++) a.put(String.format("VID_%04d.mp4", i), 1024 * 1024);
+        FakeClock clock = new FakeClock();
+        RateLimiter limiter = new RateLimiter(clock, 16 * MB);
+
+        String cursor = "";
+        int sessions = 0, checked = 0;
+        Scrubber.Pass p;
+        do {
+            p = Scrubber.run(a, cursor, limiter, clock, 10_000_000_000L, () -> false, a); // 10 с на сеанс
+            cursor = p.cursor;
+            checked += p.checked;
+            sessions++;
+            if (!p.completed) assertEquals(a.checkpoint, p.cursor);
+        } while (!p.completed);
+
+        assertEquals(1000, checked); // ни один файл не проверен дважды и не пропущен
+        assertTrue("сеансов: " + sessions, sessions >= 6 && sessions <= 8); // 1000 МБ / (16 МБ/с × 10 с)
+    }
+
+    @Test
+    public void stopSignal_keepsCursorAtLastCompleteFile() throws Exception {
+        MemArchive a = new MemArchive();
+        for (int i = 0; i < 10; i++) a.put("f" + i, 100);
+        int[] calls = { 0 };
+        Scrubber.Pass p = Scrubber.run(a, "", null, new FakeClock(), Long.MAX_VALUE, () -> ++calls[0] > 3, a);
+        assertFalse(p.completed);
+        assertEquals(3, p.checked);
+        assertEquals("f2", p.cursor);
+
+        p = Scrubber.run(a, p.cursor, null, new FakeClock(), Long.MAX_VALUE, () -> false, a);
+        assertTrue(p.completed);
+        assertEquals(7, p.checked);
+    }
+
+    @Test
+    public void unreadableFile_reportedAndSkipped() throws Exception {
+        MemArchive a = new MemArchive();
+        a.put("a", 10);
+        a.put("b", 10);
+        a.files.remove("a"); // в манифесте есть, прочитать нельзя
+        Scrubber.Archive withGhost = new Scrubber.Archive() {
+            @Override public List<String> names() { return List.of("a", "b"); }
+            @Override public String expectedSha256(String name) { return a.expectedSha256(name); }
+            @Override public InputStream open(String name) throws IOException { return a.open(name); }
+        };
+        Scrubber.Pass p = Scrubber.run(withGhost, "", null, new FakeClock(), Long.MAX_VALUE, () -> false, a);
+        assertTrue(p.completed);
+        assertEquals(List.of("a"), a.unreadable);
+        assertEquals(1, p.unreadable);
+        assertTrue(a.corrupt.isEmpty());
+    }
+}
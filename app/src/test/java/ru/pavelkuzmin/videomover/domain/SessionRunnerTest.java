@@ -0,0 +1,67 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SessionRunnerTest {
+
+    @Test
+    public void retryGoesToEndOfSession_untilLastRound() {
+        FakeClock clock = new FakeClock();
+        RetryPolicy retry = new RetryPolicy(1, 2, 1_000_000L, 1_000_000L, clock);
+        List<String> seen = new ArrayList<>();
+        List<Boolean> last = new ArrayList<>();
+
+        boolean stopped = SessionRunner.run(Arrays.asList("a", "flaky", "b"), 1, null, retry, (item, lastRound) -> {
+            seen.add(item);
+            if (item.equals("flaky")) last.add(lastRound);
+            return item.equals("flaky") && !lastRound ? SessionRunner.RETRY : SessionRunner.DONE;
+        });
+
+        assertFalse(stopped);
+        assertEquals(Arrays.asList("a", "flaky", "b", "flaky", "flaky"), seen);
+        assertEquals(Arrays.asList(false, false, true), last);
+        assertTrue("между проходами — пауза", clock.slept > 0);
+    }
+
+    @Test
+    public void stop_haltsRemainingWorkAndRetries() {
+        RetryPolicy retry = new RetryPolicy(1, 3, 0, 0, new FakeClock());
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) items.add(i);
+
+        boolean stopped = SessionRunner.run(items, 1, null, retry, (item, lastRound) -> {
+            seen.add(item);
+            if (item == 1) return SessionRunner.RETRY;
+            return item == 3 ? SessionRunner.STOP : SessionRunner.DONE;
+        });
+
+        assertTrue(stopped);
+        assertEquals(Arrays.asList(0, 1, 2, 3), seen);
+    }
+
+    @Test
+    public void workers_eachItemExactlyOnce() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 500; i++) items.add(i);
+        Map<Integer, AtomicInteger> runs = new ConcurrentHashMap<>();
+
+        SessionRunner.run(items, 4, () -> 4, RetryPolicy.NONE, (item, lastRound) -> {
+            runs.computeIfAbsent(item, k -> new AtomicInteger()).incrementAndGet();
+            return SessionRunner.DONE;
+        });
+
+        assertEquals(500, runs.size());
+        for (AtomicInteger n : runs.values()) assertEquals(1, n.get());
+    }
+}
@@ -0,0 +1,59 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class Sha256SumsTest {
+
+    private static final String A = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String B = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+    private static Sha256Sums.Index load(String text) throws Exception {
+        return Sha256Sums.load(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void formatLine_matchesSha256sumTextMode() {
+        assertEquals(A + "  VID_0001.mp4\n", Sha256Sums.formatLine(A, "VID_0001.mp4"));
+    }
+
+    @Test
+    public void roundTrip_includingEscapedNames() throws Exception {
+        String odd = "a\\b\nc.mp4";
+        Sha256Sums.Index idx = load(Sha256Sums.formatLine(A, "Видео 1.mp4") + Sha256Sums.formatLine(B, odd));
+        assertEquals(A, idx.hashOf("Видео 1.mp4"));
+        assertEquals(B, idx.hashOf(odd));
+        assertEquals(odd, idx.nameOf(B));
+    }
+
+    @Test
+    public void load_acceptsBinaryModeAndUppercase_skipsGarbage() throws Exception {
+        Sha256Sums.Index idx = load(A.toUpperCase() + " *x.mp4\n"
+                + "not a line\n"
+                + B.substring(1) + "  short.mp4\n"
+                + "\n");
+        assertEquals(1, idx.size());
+        assertEquals(A, idx.hashOf("x.mp4"));
+    }
+
+    @Test
+    public void laterLineWins_andReverseIndexFollows() throws Exception {
+        Sha256Sums.Index idx = load(A + "  x.mp4\n" + B + "  x.mp4\n");
+        assertEquals(B, idx.hashOf("x.mp4"));
+        assertNull(idx.nameOf(A));
+        assertEquals("x.mp4", idx.nameOf(B));
+    }
+
+    @Test
+    public void load_streamsLargeManifest() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) sb.append(Sha256Sums.formatLine(String.format("%064x", i), "VID_" + i + ".mp4"));
+        Sha256Sums.Index idx = load(sb.toString());
+        assertEquals(50_000, idx.size());
+        assertEquals("VID_49999.mp4", idx.nameOf(String.format("%064x", 49999)));
+    }
+}
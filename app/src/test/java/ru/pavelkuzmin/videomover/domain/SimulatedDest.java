@@ -0,0 +1,188 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+/**
+ * Назначение, ведущее себя как медленный SAF-провайдер / USB-накопитель:
+ * каждое обращение стоит opLatency виртуального времени, запись ограничена bytesPerSec,
+ * отказы впрыскиваются на каждом N-м create / open / rename, а запись может оборваться посередине —
+ * после обрыва устройство «отключено» outageNanos. Вместо байтов хранятся размер и SHA-256
+ * (плюс состояние хэша, чтобы файл можно было дописать с конца, если resumable).
+ */
+class SimulatedDest implements DestStorage {
+
+    static class Entry {
+        final long size;
+        final String sha256;
+        final MessageDigest state; // хэш первых size байт — для продолжения записи
+        Entry(long size, String sha256, MessageDigest state) { this.size = size; this.sha256 = sha256; this.state = state; }
+    }
+
+    private final FakeClock clock;
+    private final Map<String, Entry> files = new HashMap<>();
+    private final UniqueNames names;
+
+    long opLatencyNanos;
+    long bytesPerSec;      // 0 — без ограничения
+    int failEveryCreate;   // 0 — не отказывать
+    int failEveryOpen;
+    int failEveryRename;
+    int breakEveryWrite;   // поток обрывается на середине каждого N-го открытия
+    int maxBreaks;         // 0 — обрывать без ограничения
+    long outageNanos;      // сколько «отключено» устройство после обрыва
+    boolean resumable;     // умеет дописывать файл с конца (resumableLength / openOutput(name, offset))
+    private long offlineUntil;
+
+    int calls;
+    int creates;
+    int openOutputs;
+    int renames;
+    int deletes;
+    int resumes;
+    long bytesWritten;     // всего принято байт, включая перезаписанные заново
+    int breaks;
+
+    SimulatedDest(FakeClock clock, String... existing) {
+        this.clock = clock;
+        for (String name : existing) files.put(name, new Entry(0, "", newDigest()));
+        this.names = new UniqueNames(files.keySet());
+    }
+
+    Map<String, Entry> files() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    @Override public String reserveUniqueName(String base, String ext) {
+        return names.reserve(base, ext);
+    }
+
+    @Override public void release(String name) {
+        names.release(name);
+    }
+
+    @Override public void create(String name) throws IOException {
+        call();
+        creates++;
+        if (hits(failEveryCreate, creates)) throw new IOException("create отклонён");
+        if (files.containsKey(name)) throw new IOException("Файл уже существует: " + name);
+        files.put(name, new Entry(0, "", newDigest()));
+        names.taken(name);
+    }
+
+    @Override public OutputStream openOutput(String name) throws IOException {
+        call();
+        openOutputs++;
+        if (hits(failEveryOpen, openOutputs)) throw new IOException("open отклонён");
+        if (!files.containsKey(name)) throw new IOException("Нет файла: " + name);
+        return new SimOutput(name, 0, newDigest(), hits(breakEveryWrite, openOutputs));
+    }
+
+    @Override public long resumableLength(String name) throws IOException {
+        call();
+        Entry e = files.get(name);
+        if (e == null) throw new IOException("Нет файла: " + name);
+        return resumable ? e.size : 0;
+    }
+
+    @Override public OutputStream openOutput(String name, long offset) throws IOException {
+        if (offset == 0) return openOutput(name);
+        call();
+        openOutputs++;
+        resumes++;
+        Entry e = files.get(name);
+        if (!resumable || e == null || offset != e.size) throw new IOException("Нельзя дописать " + name + " с " + offset);
+        return new SimOutput(name, offset, copyOf(e.state), hits(breakEveryWrite, openOutputs));
+    }
+
+    @Override public void rename(String from, String to) throws IOException {
+        call();
+        renames++;
+        if (hits(failEveryRename, renames)) throw new IOException("rename отклонён");
+        Entry e = files.get(from);
+        if (e == null || files.containsKey(to)) throw new IOException("rename " + from + " → " + to);
+        files.remove(from);
+        files.put(to, e);
+        names.freed(from);
+        names.taken(to);
+    }
+
+    @Override public void delete(String name) {
+        calls++;
+        clock.sleepNanos(opLatencyNanos);
+        deletes++;
+        files.remove(name);
+        names.freed(name);
+    }
+
+    private void call() throws IOException {
+        calls++;
+        clock.sleepNanos(opLatencyNanos);
+        if (clock.now < offlineUntil) throw new IOException("Устройство отключено");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest copyOf(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean hits(int every, int n) {
+        return every > 0 && n % every == 0;
+    }
+
+    private class SimOutput extends OutputStream {
+        private final String name;
+        private final boolean breaks;
+        private final MessageDigest md;
+        private long size;
+
+        private long written;
+
+        SimOutput(String name, long offset, MessageDigest md, boolean breaks) {
+            this.name = name;
+            this.size = offset;
+            this.md = md;
+            this.breaks = breaks;
+        }
+
+        @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            // обрыв после первого же блока — как выдернутый OTG-кабель
+            if (breaks && written > 0 && (maxBreaks == 0 || SimulatedDest.this.breaks < maxBreaks)) {
+                SimulatedDest.this.breaks++;
+                offlineUntil = clock.now + outageNanos;
+                throw new IOException("Устройство отключено");
+            }
+            md.update(b, off, len);
+            size += len;
+            written += len;
+            bytesWritten += len;
+            if (bytesPerSec > 0) clock.sleepNanos(len * 1_000_000_000L / bytesPerSec);
+        }
+
+        @Override public void close() {
+            if (files.containsKey(name)) files.put(name, new Entry(size, HashUtil.toHex(copyOf(md).digest()), md));
+        }
+    }
+}
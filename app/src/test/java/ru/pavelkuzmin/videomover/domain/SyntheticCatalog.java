@@ -0,0 +1,94 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+/**
+ * Источник из синтетических роликов: содержимое детерминированно выводится из id,
+ * поэтому в памяти ничего не хранится. Открытие стоит openLatency, чтение ограничено bytesPerSec.
+ * Сбои: каждое N-е открытие обрывает чтение на середине, а ролики из grown длиннее, чем в списке
+ * (камера ещё дописывает файл).
+ */
+class SyntheticCatalog implements SourceCatalog {
+    private final List<Item> items = new ArrayList<>();
+    private final FakeClock clock;
+    long openLatencyNanos;
+    long bytesPerSec; // 0 — без ограничения
+    int breakEveryOpen; // 0 — без обрывов
+    final Set<Long> grown = new HashSet<>();
+    int opens;
+
+    SyntheticCatalog(FakeClock clock, int count, long minSize, long maxSize, long seed) {
+        this.clock = clock;
+        Random rnd = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            long size = minSize + (long) (rnd.nextDouble() * (maxSize - minSize));
+            items.add(new Item(i, String.format("VID_%05d.mp4", i), size));
+        }
+    }
+
+    @Override public List<Item> list() {
+        return items;
+    }
+
+    @Override public InputStream open(Item item) {
+        opens++;
+        clock.sleepNanos(openLatencyNanos);
+        long size = grown.contains(item.id) ? item.size + 4096 : item.size;
+        boolean breaks = breakEveryOpen > 0 && opens % breakEveryOpen == 0;
+        return new ClipStream(item, size, breaks ? size / 2 : -1);
+    }
+
+    /** SHA-256 содержимого ролика — эталон для проверки назначения. */
+    String expectedSha256(Item item) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new ClipStream(item, item.size, -1)) {
+            int read;
+            while ((read = in.read(buf)) != -1) md.update(buf, 0, read);
+        }
+        return HashUtil.toHex(md.digest());
+    }
+
+    private class ClipStream extends InputStream {
+        private final long size;
+        private final long breakAt; // -1 — не обрывается
+        private long pos;
+        private long state;
+
+        ClipStream(Item item, long size, long breakAt) {
+            this.size = size;
+            this.breakAt = breakAt;
+            this.state = item.id * 0x9E3779B97F4A7C15L + 1;
+        }
+
+        @Override public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= size) return -1;
+            if (breakAt >= 0 && pos >= breakAt) throw new IOException("Чтение оборвалось");
+            int n = (int) Math.min(len, (breakAt >= 0 ? breakAt : size) - pos);
+            for (int i = 0; i < n; i++) {
+                // xorshift — дёшево и без повторяющихся блоков
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                b[off + i] = (byte) state;
+            }
+            pos += n;
+            if (bytesPerSec > 0) clock.sleepNanos(n * 1_000_000_000L / bytesPerSec);
+            return n;
+        }
+    }
+}
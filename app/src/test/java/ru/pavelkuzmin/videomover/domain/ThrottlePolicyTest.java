@@ -0,0 +1,36 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThrottlePolicyTest {
+
+    @Test
+    public void coolDevice_keepsUserCap() {
+        assertEquals(0, ThrottlePolicy.effectiveRate(0, ThrottlePolicy.THERMAL_NONE, false));
+        assertEquals(1000, ThrottlePolicy.effectiveRate(1000, ThrottlePolicy.THERMAL_LIGHT, false));
+        assertEquals(3, ThrottlePolicy.parallelism(3, ThrottlePolicy.THERMAL_LIGHT, false));
+    }
+
+    @Test
+    public void heating_lowersRateAndParallelism() {
+        assertEquals(500, ThrottlePolicy.effectiveRate(1000, ThrottlePolicy.THERMAL_MODERATE, false));
+        assertEquals(250, ThrottlePolicy.effectiveRate(1000, ThrottlePolicy.THERMAL_SEVERE, false));
+        assertEquals(2, ThrottlePolicy.parallelism(4, ThrottlePolicy.THERMAL_MODERATE, false));
+        assertEquals(1, ThrottlePolicy.parallelism(4, ThrottlePolicy.THERMAL_SEVERE, false));
+    }
+
+    @Test
+    public void unlimitedCap_throttlesFromNominal() {
+        assertEquals(ThrottlePolicy.NOMINAL_BYTES_PER_SEC / 10,
+                ThrottlePolicy.effectiveRate(0, ThrottlePolicy.THERMAL_CRITICAL, false));
+    }
+
+    @Test
+    public void powerSave_halvesRateAndSerializes() {
+        assertEquals(500, ThrottlePolicy.effectiveRate(1000, ThrottlePolicy.THERMAL_NONE, true));
+        assertEquals(250, ThrottlePolicy.effectiveRate(1000, ThrottlePolicy.THERMAL_MODERATE, true));
+        assertEquals(1, ThrottlePolicy.parallelism(4, ThrottlePolicy.THERMAL_NONE, true));
+    }
+}
@@ -0,0 +1,165 @@
+package ru.pavelkuzmin.videomover.domain;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ru.pavelkuzmin.videomover.util.HashUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Сквозные сессии переноса на синтетических роликах в виртуальном времени:
+ * ловят регрессии пропускной способности, лишние обращения к провайдеру и «осиротевшие» .partial.
+ */
+public class TransferSimulationTest {
+
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void thousandsOfClips_allCopiedWithThreeCallsEach() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 2000, 16 * KB, 256 * KB, 1);
+        SimulatedDest dest = new SimulatedDest(clock);
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock);
+
+        assertEquals(2000, r.ok);
+        assertEquals(0, r.fail);
+        assertEquals(3 * 2000, dest.calls); // create + open + rename
+        assertEquals(2000, src.opens);
+        assertEquals(2000, dest.files().size());
+        for (int i = 0; i < 2000; i += 97) {
+            SourceCatalog.Item it = src.list().get(i);
+            SimulatedDest.Entry e = dest.files().get(it.name);
+            assertNotNull(it.name, e);
+            assertEquals(it.size, e.size);
+            assertEquals(src.expectedSha256(it), e.sha256);
+            assertEquals(e.sha256, r.results.get(i).sha256);
+        }
+    }
+
+    @Test
+    public void slowSaf_throughputBoundedByLatencyAndBandwidth() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 500, 512 * KB, 2 * MB, 2);
+        src.openLatencyNanos = 5 * MS;
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.opLatencyNanos = 15 * MS;     // типичный USB OTG через SAF
+        dest.bytesPerSec = 20 * MB;
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock);
+
+        assertEquals(500, r.ok);
+        double ideal = r.bytes / (double) (20 * MB) + 500 * (5 + 3 * 15) / 1000.0;
+        double seconds = r.elapsedNanos / 1e9;
+        // весь простой — это задержки провайдера и полоса записи; лишний вызов на файл даст +15 мс × 500
+        assertEquals(ideal, seconds, 0.01);
+        assertTrue(r.bytesPerSecond() > 10 * MB);
+    }
+
+    @Test
+    public void rateLimiter_capsSessionThroughput() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 200, 256 * KB, 1 * MB, 3);
+        SimulatedDest dest = new SimulatedDest(clock);
+        RateLimiter limiter = new RateLimiter(clock, 4 * MB);
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, limiter, clock);
+
+        assertEquals(200, r.ok);
+        assertEquals(4.0 * MB, r.bytesPerSecond(), 0.05 * MB);
+    }
+
+    @Test
+    public void injectedFailures_leaveNoPartials() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 300, 1100 * KB, 2 * MB, 4);
+        SimulatedDest dest = new SimulatedDest(clock);
+        dest.failEveryCreate = 11;
+        dest.failEveryRename = 7;
+        dest.breakEveryWrite = 5;
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock);
+
+        assertEquals(300, r.ok + r.fail);
+        assertTrue(r.fail > 0);
+        Set<String> okNames = new HashSet<>();
+        for (int i = 0; i < r.results.size(); i++) {
+            FileCopier.Result res = r.results.get(i);
+            if (!res.ok) continue;
+            okNames.add(res.finalName);
+            SourceCatalog.Item it = src.list().get(i);
+            assertEquals(src.expectedSha256(it), dest.files().get(res.finalName).sha256);
+        }
+        assertEquals(r.ok, okNames.size());
+        for (String name : dest.files().keySet()) {
+            assertFalse(name, name.endsWith(FileCopier.PARTIAL_SUFFIX));
+        }
+        assertEquals(okNames, dest.files().keySet());
+    }
+
+    @Test
+    public void nameCollisions_resolvedWithoutExtraCalls() throws Exception {
+        FakeClock clock = new FakeClock();
+        SyntheticCatalog src = new SyntheticCatalog(clock, 10, 1 * KB, 2 * KB, 5);
+        SimulatedDest dest = new SimulatedDest(clock, "VID_00000.mp4", "VID_00003.mp4", "VID_00003 (1).mp4");
+
+        TransferSession.Report r = TransferSession.run(src, dest, 1, null, clock);
+
+        assertEquals(10, r.ok);
+        assertEquals(30, dest.calls);
+        assertEquals("VID_00000 (1).mp4", r.results.get(0).finalName);
+        assertEquals("VID_00003 (2).mp4", r.results.get(3).finalName);
+    }
+
+    @Test
+    public void localFileSystem_parallelWorkers() throws Exception {
+        File root = Files.createTempDirectory("videomover").toFile();
+        File in = new File(root, "in");
+        File out = new File(root, "out");
+        assertTrue(in.mkdir() && out.mkdir());
+        try {
+            SyntheticCatalog synth = new SyntheticCatalog(new FakeClock(), 50, 1 * KB, 300 * KB, 6);
+            for (SourceCatalog.Item it : synth.list()) {
+                try (InputStream s = synth.open(it); OutputStream o = new FileOutputStream(new File(in, it.name))) {
+                    byte[] buf = new byte[64 * 1024];
+                    int read;
+                    while ((read = s.read(buf)) != -1) o.write(buf, 0, read);
+                }
+            }
+
+            TransferSession.Report r = TransferSession.run(new LocalSourceCatalog(in), new LocalDestStorage(out),
+                    4, null, RateLimiter.SYSTEM_CLOCK);
+
+            assertEquals(50, r.ok);
+            String[] names = out.list();
+            assertNotNull(names);
+            assertEquals(50, names.length);
+            for (SourceCatalog.Item it : synth.list()) {
+                try (InputStream s = new FileInputStream(new File(out, it.name))) {
+                    assertEquals(synth.expectedSha256(it), HashUtil.sha256(s));
+                }
+            }
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    private static void deleteTree(File f) {
+        File[] kids = f.listFiles();
+        if (kids != null) for (File k : kids) deleteTree(k);
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
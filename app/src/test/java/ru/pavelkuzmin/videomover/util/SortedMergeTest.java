@@ -0,0 +1,39 @@
+package ru.pavelkuzmin.videomover.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SortedMergeTest {
+
+    private static final Comparator<Integer> DESC = Comparator.reverseOrder();
+
+    @Test
+    public void merge_interleavesByOrder() {
+        List<Integer> internal = Arrays.asList(90, 70, 40, 10);
+        List<Integer> sd = Arrays.asList(80, 75, 20);
+        assertEquals(Arrays.asList(90, 80, 75, 70, 40, 20, 10),
+                SortedMerge.merge(Arrays.asList(internal, sd), DESC, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void merge_respectsLimit_andEmptyLists() {
+        List<Integer> empty = Collections.emptyList();
+        assertEquals(Arrays.asList(5, 4),
+                SortedMerge.merge(Arrays.asList(empty, Arrays.asList(5, 3), Arrays.asList(4)), DESC, 2));
+        assertTrue(SortedMerge.merge(Collections.<List<Integer>>emptyList(), DESC, 10).isEmpty());
+    }
+
+    @Test
+    public void merge_tiesKeepVolumeOrder() {
+        List<String> a = Arrays.asList("a1", "a2");
+        List<String> b = Arrays.asList("b1");
+        Comparator<String> same = (x, y) -> 0;
+        assertEquals(Arrays.asList("a1", "a2", "b1"), SortedMerge.merge(Arrays.asList(a, b), same, 10));
+    }
+}